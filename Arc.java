@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.geom.Path2D;
+
+/**
+ * An obstacle along a circular arc, such as a curved channel or a round
+ * container with an opening. Particles bounce off both of its sides and off
+ * its ends. The angles are in degrees as in {@code StdDraw.arc}, measured
+ * counterclockwise from the direction of the <em>x</em> axis.
+ *
+ * @author Manish Joshi
+ */
+public class Arc extends Obstacle {
+
+    private final double x, y;              // the center
+    private final double r;                 // the radius
+    private final double start, extent;     // the angles the arc starts at and sweeps, in radians
+    private final double ex0, ey0, ex1, ey1;    // the end points
+
+    /**
+     * Initializes an arc of the circle of given center and radius, going
+     * counterclockwise from angle1 to angle2. A sweep of 360 degrees or more
+     * gives the whole circle.
+     *
+     * @param x <em>x</em> coordinate of the center
+     * @param y <em>y</em> coordinate of the center
+     * @param radius the radius
+     * @param angle1 the angle the arc starts at, in degrees
+     * @param angle2 the angle the arc ends at, in degrees
+     * @throws IllegalArgumentException if the radius is not positive
+     */
+    public Arc(double x, double y, double radius, double angle1, double angle2) {
+        if (!(radius > 0)) {
+            throw new IllegalArgumentException("radius must be positive");
+        }
+        while (angle2 < angle1) {
+            angle2 += 360;
+        }
+        this.x = x;
+        this.y = y;
+        this.r = radius;
+        this.start = Math.toRadians(angle1);
+        this.extent = Math.toRadians(Math.min(angle2 - angle1, 360));
+        this.ex0 = x + r * Math.cos(start);
+        this.ey0 = y + r * Math.sin(start);
+        this.ex1 = x + r * Math.cos(start + extent);
+        this.ey1 = y + r * Math.sin(start + extent);
+
+        // the box holds the end points and the points of the arc farthest along each axis
+        xmin = xmax = ex0;
+        ymin = ymax = ey0;
+        include(ex1, ey1);
+        for (int k = 0; k < 4; k++) {
+            double a = k * Math.PI / 2;
+            if (on(x + Math.cos(a), y + Math.sin(a))) {
+                include(x + r * Math.cos(a), y + r * Math.sin(a));
+            }
+        }
+    }
+
+    // true if the direction from the center to the point lies within the arc
+    private boolean on(double px, double py) {
+        double a = Math.atan2(py - y, px - x) - start;
+        a -= 2 * Math.PI * Math.floor(a / (2 * Math.PI));
+        return a <= extent;
+    }
+
+    @Override
+    double timeToHit(double rx, double ry, double vx, double vy, double radius) {
+        double time = INFINITY;
+        if (extent < 2 * Math.PI) {
+            time = Math.min(timeToHit(ex0, ey0, rx, ry, vx, vy, radius),
+                    timeToHit(ex1, ey1, rx, ry, vx, vy, radius));
+        }
+        double dx = rx - x, dy = ry - y;
+        double dvdr = vx * dx + vy * dy;
+        double dvdv = vx * vx + vy * vy;
+        double drdr = dx * dx + dy * dy;
+        boolean inside = drdr <= r * r;
+        if (!inside && dvdr < 0) {
+            // outside, the disc hits the outer side when it comes close enough
+            double sigma = r + radius;
+            double discriminant = dvdr * dvdr - dvdv * (drdr - sigma * sigma);
+            if (discriminant >= 0) {
+                time = Math.min(time, hit(rx, ry, vx, vy, -(dvdr + Math.sqrt(discriminant)) / dvdv));
+            }
+        }
+        if (r > radius && dvdv > 0) {
+            // inside, or after coming in through the opening, the disc hits
+            // the inner side when it gets far enough
+            double sigma = r - radius;
+            double discriminant = dvdr * dvdr - dvdv * (drdr - sigma * sigma);
+            if (inside) {
+                discriminant = Math.max(0.0, discriminant);
+            }
+            if (discriminant >= 0) {
+                double dt = (-dvdr + Math.sqrt(discriminant)) / dvdv;
+                if (inside || dt >= 0) {
+                    time = Math.min(time, hit(rx, ry, vx, vy, dt));
+                }
+            }
+        }
+        return time;
+    }
+
+    // the time dt, or no earlier than now, if the disc then touches the arc
+    // rather than the opening, infinite otherwise
+    private double hit(double rx, double ry, double vx, double vy, double dt) {
+        dt = Math.max(0.0, dt);
+        return on(rx + vx * dt, ry + vy * dt) ? dt : INFINITY;
+    }
+
+    @Override
+    void closest(double px, double py) {
+        double dx = px - x, dy = py - y;
+        double d = Math.sqrt(dx * dx + dy * dy);
+        if (d > 0 && on(px, py)) {
+            qx = x + r * dx / d;
+            qy = y + r * dy / d;
+        } else if ((px - ex0) * (px - ex0) + (py - ey0) * (py - ey0)
+                <= (px - ex1) * (px - ex1) + (py - ey1) * (py - ey1)) {
+            qx = ex0;
+            qy = ey0;
+        } else {
+            qx = ex1;
+            qy = ey1;
+        }
+        nx = (qx - x) / r;
+        ny = (qy - y) / r;
+    }
+
+    @Override
+    void trace(Path2D path, Canvas c) {
+        // one cubic Bezier curve for each quarter of a circle at most
+        int pieces = (int) Math.ceil(extent / (Math.PI / 2) - 1e-9);
+        double step = extent / pieces;
+        double k = 4.0 / 3.0 * Math.tan(step / 4) * r;    // distance of the control points
+        path.moveTo(c.x0 + ex0 * c.sx, c.y0 + ey0 * c.sy);
+        for (int p = 0; p < pieces; p++) {
+            double a0 = start + p * step, a1 = a0 + step;
+            double cos0 = Math.cos(a0), sin0 = Math.sin(a0), cos1 = Math.cos(a1), sin1 = Math.sin(a1);
+            path.curveTo(c.x0 + (x + r * cos0 - k * sin0) * c.sx, c.y0 + (y + r * sin0 + k * cos0) * c.sy,
+                    c.x0 + (x + r * cos1 + k * sin1) * c.sx, c.y0 + (y + r * sin1 - k * cos1) * c.sy,
+                    c.x0 + (x + r * cos1) * c.sx, c.y0 + (y + r * sin1) * c.sy);
+        }
+    }
+}
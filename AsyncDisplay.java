@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import dependencies.*;
+
+/**
+ * Draws the frames of a {@code CollisionSystem} to the Standard Draw window on
+ * a thread of its own, so that the simulation never waits on the display.
+ * <p>
+ * On each redraw event the simulator copies the particles into a snapshot it
+ * owns and swaps it with the one waiting to be drawn. The render thread swaps
+ * the waiting snapshot with its own when a new one is there, and draws at its
+ * own frame rate. Only references are swapped under the lock, so neither
+ * thread holds it for long. Since the render thread keeps the previous
+ * snapshot too, it can show the particles between the two by linear
+ * interpolation, which smooths the motion when frames come in slower than
+ * they are drawn. The display then lags one snapshot behind the simulation.
+ *
+ * @author Manish Joshi
+ */
+public class AsyncDisplay implements FrameListener {
+
+    private final Renderer renderer;            // draws the frames
+    private final Viewport viewport;            // the region in view, null for the whole box
+    private final long period;                  // nanoseconds between frames drawn
+    private final boolean interpolate;          // draw between the last two snapshots
+
+    private final Object lock = new Object();   // guards ready and fresh
+    private Snapshot back = new Snapshot();     // filled by the simulator
+    private Snapshot ready = new Snapshot();    // the newest complete snapshot
+    private boolean fresh;                      // true if ready has not been taken yet
+
+    // owned by the render thread
+    private Snapshot front = new Snapshot();    // the newest snapshot taken
+    private Snapshot previous = new Snapshot(); // the one taken before it
+    private final Snapshot view = new Snapshot();   // the particles as drawn
+    private long arrival, interval;             // when front was taken, and how long after previous
+
+    /**
+     * Initializes the display and starts its render thread.
+     *
+     * @param fps the number of frames drawn per second
+     * @param interpolate if {@code true} the particles are drawn between the
+     * last two snapshots, otherwise at the last one
+     */
+    public AsyncDisplay(double fps, boolean interpolate) {
+        this(fps, interpolate, new ShapeRenderer(), null);
+    }
+
+    /**
+     * Initializes the display drawing with the given renderer and starts its
+     * render thread.
+     *
+     * @param fps the number of frames drawn per second
+     * @param interpolate if {@code true} the particles are drawn between the
+     * last two snapshots, otherwise at the last one
+     * @param renderer the renderer
+     * @param viewport the region in view, or {@code null} to show the whole box
+     */
+    AsyncDisplay(double fps, boolean interpolate, Renderer renderer, Viewport viewport) {
+        this.renderer = renderer;
+        this.viewport = viewport;
+        this.period = (long) (1e9 / fps);
+        this.interpolate = interpolate;
+        CollisionSystem.useDoubleBuffering(true);
+
+        Thread thread = new Thread(this::run, "AsyncDisplay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void frame(double time, ParticleStore store) {
+        if (viewport != null) {
+            viewport.cull(time, store, back);
+        } else {
+            back.copy(time, store);
+        }
+        synchronized (lock) {
+            Snapshot s = ready;
+            ready = back;
+            back = s;
+            fresh = true;
+        }
+    }
+
+    // the render loop
+    private void run() {
+        long next = System.nanoTime();
+        while (true) {
+            long now = System.nanoTime();
+            take(now);
+            if (interpolate && previous.n == front.n && front.time > previous.time) {
+                view.interpolate(previous, front, Math.min(1.0, (double) (now - arrival) / interval));
+                draw(view);
+            } else {
+                draw(front);
+            }
+
+            next += period;
+            long sleep = next - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            } else {
+                next = System.nanoTime();   // running late, do not try to catch up
+            }
+        }
+    }
+
+    // takes the newest snapshot if there is one
+    private void take(long now) {
+        synchronized (lock) {
+            if (!fresh) {
+                return;
+            }
+            Snapshot s = previous;
+            previous = front;
+            front = ready;
+            ready = s;
+            fresh = false;
+        }
+        interval = now - arrival;
+        arrival = now;
+    }
+
+    // draws the particles of a snapshot
+    private void draw(Snapshot s) {
+        if (viewport != null) {
+            viewport.poll();
+        }
+        renderer.render(s, Canvas.stdDraw());
+        StdDraw.show();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Scanner;
+
+/**
+ * Measures the running time of the simulator on some of the sample data files
+ * with each kind of event queue. Redraws are limited to one at the start and
+ * one at the end of each run so that the time is spent in the simulation.
+ * <p>
+ * The simulator is measured with the Standard Draw window ({@code gui}) and
+ * headless ({@code headless}), where it draws nothing and never loads AWT. The
+ * startup time is the time from the start of the JVM until a first simulation
+ * of no time has returned, which includes opening the window in the first
+ * mode. Each mode runs in a JVM of its own so that its startup is measured
+ * cold.
+ * <p>
+ * Run from the root of the repository using
+ * {@code java Benchmark [limit] [gui|headless|both]}, where {@code limit} is
+ * the simulated time of each run (100 by default) and both modes are measured
+ * by default.
+ *
+ * @author Manish Joshi
+ */
+public class Benchmark {
+
+    private static final String[] FILES = {"p2000.txt", "diffusion.txt"};
+
+    // reads the particles of a sample data file
+    private static ParticleStore read(String filename) throws FileNotFoundException {
+        Scanner in = new Scanner(new File("sample-data-files", filename));
+        in.useLocale(Locale.US);
+        ParticleStore store = ParticleStore.read(in);
+        in.close();
+        return store;
+    }
+
+    // simulates the file with given scheduler and returns the elapsed time in ms, the number of collisions in
+    // out[0] and the number of compactions of the event queue in out[1]
+    private static double run(String filename, CollisionSystem.Scheduler scheduler, double limit,
+            boolean headless, long[] out) throws FileNotFoundException {
+        ParticleStore store = read(filename);
+        CollisionSystem system = new CollisionSystem(store);
+        system.setScheduler(scheduler);
+        system.setHeadless(headless);
+        system.useCellGrid(true);
+        system.useLazyClocks(true);
+        system.setRedrawHZ(1.0 / limit);
+
+        long start = System.nanoTime();
+        system.simulate(limit);
+        long elapsed = System.nanoTime() - start;
+
+        long collisions = 0;
+        for (int i = 0; i < store.size(); i++) {
+            collisions += store.count(i);
+        }
+        out[0] = collisions;
+        out[1] = system.compactions();
+        return elapsed / 1e6;
+    }
+
+    // measures one mode in this JVM and prints its rows of the table
+    private static void measure(double limit, boolean headless) throws FileNotFoundException {
+        String mode = headless ? "headless" : "gui";
+        long[] counts = new long[2];
+
+        // startup until the first simulation has returned
+        run(FILES[0], CollisionSystem.Scheduler.HEAP, 0, headless, counts);
+        long startup = ManagementFactory.getRuntimeMXBean().getUptime();
+
+        // warm up the JIT compiler before measuring
+        for (CollisionSystem.Scheduler scheduler : CollisionSystem.Scheduler.values()) {
+            run(FILES[0], scheduler, limit / 10, headless, counts);
+        }
+
+        StringBuilder table = new StringBuilder();
+        for (String filename : FILES) {
+            for (CollisionSystem.Scheduler scheduler : CollisionSystem.Scheduler.values()) {
+                double ms = run(filename, scheduler, limit, headless, counts);
+                table.append(String.format("%-9s %12d %-15s %-10s %12.1f %12d %15.0f %12d%n",
+                        mode, startup, filename, scheduler, ms, counts[0], counts[0] / (ms / 1000),
+                        counts[1]));
+            }
+        }
+        System.out.print(table);
+    }
+
+    // measures the mode in a new JVM, passing its rows through
+    private static void fork(double limit, String mode) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "Benchmark", Double.toString(limit), mode);
+        builder.inheritIO();
+        int status = builder.start().waitFor();
+        if (status != 0) {
+            System.out.printf("%-9s failed with exit status %d%n", mode, status);
+        }
+    }
+
+    /**
+     * Runs the benchmark and prints a table of the results.
+     *
+     * @param args the simulated time of each run and the mode to measure (optional)
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        double limit = args.length > 0 ? Double.parseDouble(args[0]) : 100;
+        String mode = args.length > 1 ? args[1] : "both";
+
+        if (mode.equals("gui")) {
+            measure(limit, false);
+        } else if (mode.equals("headless")) {
+            measure(limit, true);
+        } else if (mode.equals("both")) {
+            System.out.printf("%-9s %12s %-15s %-10s %12s %12s %15s %12s%n",
+                    "mode", "startup (ms)", "file", "scheduler", "time (ms)", "collisions", "collisions/s",
+                    "compactions");
+            fork(limit, "gui");
+            fork(limit, "headless");
+        } else {
+            throw new IllegalArgumentException("unknown mode: " + mode);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * An event queue implemented as a calendar queue, see R. Brown, <em>Calendar
+ * queues: a fast O(1) priority queue implementation for the simulation event
+ * set problem</em>, CACM 31(10), 1988.
+ * <p>
+ * Time is cut into days of fixed width which are laid out on a year of
+ * buckets, an event goes to the bucket of its day modulo the length of the
+ * year and each bucket is kept sorted. Events are removed by walking the days
+ * from the current one, so when the width fits the spacing of the events both
+ * adding and removing cost constant amortized time. The year is doubled or
+ * halved as the queue grows or shrinks, and the width is then estimated again
+ * from the spacing of the earliest events.
+ * <p>
+ * Like the binary heap, the queue keeps every event and leaves the stale ones
+ * to be discarded by the simulator when they are removed.
+ *
+ * @author Manish Joshi
+ */
+class CalendarEventQueue implements EventQueue {
+
+    private static final int SAMPLE = 25;   // number of earliest events used to estimate the width
+
+    private final ParticleStore store;      // the particles of the events
+
+    private Event[][] buckets;              // each bucket sorted by decreasing time, earliest last
+    private int[] counts;                   // number of events in each bucket
+    private int nbuckets;                   // number of buckets in a year, a power of 2
+    private double width;                   // width of a day
+    private int size;                       // number of events in the queue
+
+    private int last;                       // bucket of the current day
+    private long day;                       // number of the current day, counted from time zero
+    private double lastTime;                // time of the last removed event
+
+    /**
+     * Initializes an empty queue for events among the given particles.
+     *
+     * @param store the particles
+     */
+    CalendarEventQueue(ParticleStore store) {
+        this.store = store;
+        init(2, 1.0, 0.0);
+    }
+
+    @Override
+    public void add(double time, int a, int b) {
+        insert(new Event(time, a, b, store));
+        if (++size > 2 * nbuckets) {
+            resize(2 * nbuckets);
+        }
+    }
+
+    @Override
+    public Event remove() {
+        Event e = next();
+        if (--size < nbuckets / 2 && nbuckets > 2) {
+            resize(nbuckets / 2);
+        }
+        return e;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean earliestOnly() {
+        return false;
+    }
+
+    @Override
+    public void invalidate(int p) {
+        // stale events are recognized by their collision counts
+    }
+
+    @Override
+    public int orphan() {
+        return -1;
+    }
+
+    // sets up an empty calendar whose current day starts at given time
+    private void init(int nbuckets, double width, double start) {
+        this.nbuckets = nbuckets;
+        this.width = width;
+        this.buckets = new Event[nbuckets][];
+        this.counts = new int[nbuckets];
+        this.lastTime = start;
+        this.day = dayOf(start);
+        this.last = (int) (day % nbuckets);
+    }
+
+    // places e in its bucket, keeping the bucket sorted
+    private void insert(Event e) {
+        long d = dayOf(e.time);
+        int i = (int) (d % nbuckets);
+        if (e.time < lastTime) {
+            // an event in the past of the calendar, move the current day back to it
+            lastTime = e.time;
+            last = i;
+            day = d;
+        }
+
+        Event[] bucket = buckets[i];
+        int n = counts[i];
+        if (bucket == null) {
+            bucket = buckets[i] = new Event[4];
+        } else if (n == bucket.length) {
+            bucket = buckets[i] = Arrays.copyOf(bucket, 2 * n);
+        }
+        // find the place of e among the decreasing times, ties go below so they are removed first in first out
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (bucket[mid].time > e.time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        System.arraycopy(bucket, lo, bucket, lo + 1, n - lo);
+        bucket[lo] = e;
+        counts[i] = n + 1;
+    }
+
+    // removes the earliest event
+    private Event next() {
+        // walk the days of the current year, an event belongs to the current
+        // day if it was filed under it, comparing day numbers rather than
+        // times against a running sum of widths which drifts over long runs
+        for (int k = 0; k < nbuckets; k++) {
+            int n = counts[last];
+            if (n > 0 && dayOf(buckets[last][n - 1].time) <= day) {
+                return pop(last);
+            }
+            last = (last + 1) % nbuckets;
+            day++;
+        }
+
+        // nothing this year, jump straight to the earliest event
+        int best = -1;
+        for (int i = 0; i < nbuckets; i++) {
+            int n = counts[i];
+            if (n > 0 && (best == -1 || buckets[i][n - 1].time < buckets[best][counts[best] - 1].time)) {
+                best = i;
+            }
+        }
+        last = best;
+        day = dayOf(buckets[best][counts[best] - 1].time);
+        return pop(best);
+    }
+
+    // the number of the day of given time
+    private long dayOf(double time) {
+        return (long) (time / width);
+    }
+
+    private Event pop(int i) {
+        Event e = buckets[i][--counts[i]];
+        buckets[i][counts[i]] = null;
+        lastTime = e.time;
+        return e;
+    }
+
+    // moves all events to a calendar of given number of buckets and a freshly estimated width
+    private void resize(int nbuckets) {
+        Event[] all = new Event[size];
+        int n = 0;
+        for (int i = 0; i < this.nbuckets; i++) {
+            for (int j = 0; j < counts[i]; j++) {
+                all[n++] = buckets[i][j];
+            }
+        }
+        init(nbuckets, estimateWidth(all, n), lastTime);
+        for (int j = 0; j < n; j++) {
+            insert(all[j]);
+        }
+    }
+
+    // three times the average spacing of the earliest events, ignoring outliers
+    private double estimateWidth(Event[] all, int n) {
+        int k = Math.min(SAMPLE, n);
+        if (k < 2) {
+            return width;
+        }
+        // keep the k earliest times sorted by a simple insertion pass
+        double[] earliest = new double[k];
+        int m = 0;
+        for (int j = 0; j < n; j++) {
+            double time = all[j].time;
+            if (m == k && time >= earliest[k - 1]) {
+                continue;
+            }
+            int p = m < k ? m++ : k - 1;
+            while (p > 0 && earliest[p - 1] > time) {
+                earliest[p] = earliest[p - 1];
+                p--;
+            }
+            earliest[p] = time;
+        }
+
+        double average = (earliest[k - 1] - earliest[0]) / (k - 1);
+        double sum = 0.0;
+        int count = 0;
+        for (int j = 1; j < k; j++) {
+            double gap = earliest[j] - earliest[j - 1];
+            if (gap <= 2 * average) {
+                sum += gap;
+                count++;
+            }
+        }
+        if (count == 0 || sum == 0.0) {
+            return width;
+        }
+        return 3.0 * sum / count;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import dependencies.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * An image a {@code Renderer} draws a frame on, together with the linear map
+ * from the coordinates of the box to the pixels of the image. The canvas is
+ * either the offscreen image of the Standard Draw window, in the scale the
+ * window is set to, or an image of its own showing the whole box, which needs
+ * no window at all.
+ * <p>
+ * The scale of the Standard Draw window must be set through
+ * {@link #setScale}, which remembers it, so that the library does not have
+ * to expose its map to pixels.
+ *
+ * @author Manish Joshi
+ */
+class Canvas {
+
+    final BufferedImage image;      // the image drawn on
+    final int[] pixels;             // its pixels, row by row
+    final int width, height;        // its size in pixels
+    final double x0, sx;            // the column of a point at x is x0 + x * sx
+    final double y0, sy;            // the row of a point at y is y0 + y * sy
+
+    // the region of the box shown in the Standard Draw window as {xmin, ymin, xmax, ymax},
+    // the default scale of the library, replaced as a whole so other threads see it consistently
+    private static volatile double[] window = {0.0, 0.0, 1.0, 1.0};
+
+    /**
+     * Initializes a canvas on the given image of type
+     * {@code BufferedImage.TYPE_INT_ARGB} with the given map.
+     *
+     * @param image the image
+     * @param x0 the column of the points with <em>x</em> coordinate 0
+     * @param sx the number of columns per unit of <em>x</em>
+     * @param y0 the row of the points with <em>y</em> coordinate 0
+     * @param sy the number of rows per unit of <em>y</em>
+     */
+    Canvas(BufferedImage image, double x0, double sx, double y0, double sy) {
+        this.image = image;
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.x0 = x0;
+        this.sx = sx;
+        this.y0 = y0;
+        this.sy = sy;
+    }
+
+    /**
+     * Returns a canvas showing the whole box on the given image of type
+     * {@code BufferedImage.TYPE_INT_ARGB}.
+     *
+     * @param image the image
+     * @return the canvas
+     */
+    static Canvas of(BufferedImage image) {
+        return new Canvas(image, 0, image.getWidth(), image.getHeight(), -image.getHeight());
+    }
+
+    /**
+     * Returns a canvas on the offscreen image of the Standard Draw window, in
+     * the current scale of the window.
+     *
+     * @return the canvas
+     */
+    static Canvas stdDraw() {
+        BufferedImage image = StdDraw.getOffscreenImage();
+        double[] r = window;
+        // rows grow downwards, from the top of the region
+        double sx = image.getWidth() / (r[2] - r[0]), sy = image.getHeight() / (r[3] - r[1]);
+        return new Canvas(image, -r[0] * sx, sx, r[3] * sy, -sy);
+    }
+
+    /**
+     * Sets the scale of the Standard Draw window to show the given region of
+     * the box.
+     *
+     * @param xmin the <em>x</em> coordinate of the left of the window
+     * @param ymin the <em>y</em> coordinate of the bottom of the window
+     * @param xmax the <em>x</em> coordinate of the right of the window
+     * @param ymax the <em>y</em> coordinate of the top of the window
+     */
+    static void setScale(double xmin, double ymin, double xmax, double ymax) {
+        StdDraw.setXscale(xmin, xmax);
+        StdDraw.setYscale(ymin, ymax);
+        window = new double[] {xmin, ymin, xmax, ymax};
+    }
+
+    /**
+     * Returns the number of pixels per unit of length.
+     *
+     * @return the scale of the canvas
+     */
+    double scale() {
+        return Math.abs(sx);
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * A uniform cell list over the unit box used as a broad phase by the
+ * {@code CollisionSystem}, see {@code SpatialIndex}. The box is split into m-by-m square cells which are
+ * at least as wide as the largest particle diameter, so two particles can only
+ * touch if their centers lie in the same or in neighbouring cells. Each
+ * particle is kept in the cell containing its center and is moved to the
+ * adjacent cell when the simulator processes its cell crossing event.
+ * <p>
+ * Cells are stored as doubly linked lists threaded through arrays indexed by
+ * particle, so moving a particle between cells costs constant time. Static
+ * particles are left out, they are indexed by a {@code StaticGrid} instead.
+ * <p>
+ * In a periodic box the cells wrap around: the cells along the right edge
+ * neighbour those along the left edge, and a particle crossing the right edge
+ * of the box moves into the leftmost cell. With at least
+ * {@link #PERIODIC_CELLS} cells along each axis the particles of the
+ * neighbouring cells are always nearest images, so the minimum image
+ * predictions of the {@code ParticleStore} hold until a cell is crossed.
+ *
+ * @author Manish Joshi
+ */
+class CellGrid implements SpatialIndex {
+
+    private static final int PERIODIC_CELLS = 5;    // fewest cells along each axis for a periodic box
+
+    private static final double INFINITY = Double.POSITIVE_INFINITY;
+
+    private final ParticleStore store;  // the particles indexed by the grid
+    private final int m;                // number of cells along each axis
+    private final double size;          // width of a cell
+    private final boolean periodic;     // the cells wrap around the edges of the box
+
+    private final int[] head;           // first particle in each cell, -1 if the cell is empty
+    private final int[] next, prev;     // links of the cell lists, -1 at the ends
+    private final int[] cellX, cellY;   // cell coordinates of each particle
+
+    private int[] buffer = new int[16]; // particles collected by the last query
+    private int found;                  // number of valid entries in buffer
+
+    /**
+     * Builds the grid for the given particles at their current positions.
+     *
+     * @param store the particles
+     */
+    CellGrid(ParticleStore store) {
+        this.store = store;
+        int n = store.size();
+
+        double maxRadius = 0.0;
+        for (int i = 0; i < n; i++) {
+            if (!store.isStatic(i)) {
+                maxRadius = Math.max(maxRadius, store.radius(i));
+            }
+        }
+        // cells must be at least one diameter wide, and there is no point in
+        // having many more cells than particles
+        int fit = maxRadius > 0 ? (int) (1.0 / (2 * maxRadius)) : Integer.MAX_VALUE;
+        this.m = Math.max(1, Math.min(fit, (int) Math.ceil(Math.sqrt(n))));
+        this.size = 1.0 / m;
+        this.periodic = store.isPeriodic();
+
+        head = new int[m * m];
+        Arrays.fill(head, -1);
+        next = new int[n];
+        prev = new int[n];
+        cellX = new int[n];
+        cellY = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (!store.isStatic(i)) {
+                cellX[i] = clamp((int) (store.rx(i) * m));
+                cellY[i] = clamp((int) (store.ry(i) * m));
+                link(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the time until the center of particle {@code i} leaves its
+     * current cell, assuming no intervening collision.
+     *
+     * @param i the index of the particle
+     * @return the time until particle {@code i} crosses a cell boundary
+     */
+    @Override
+    public double timeToCross(int i) {
+        return Math.min(timeToCross(store.rx(i), store.vx(i), cellX[i]),
+                timeToCross(store.ry(i), store.vy(i), cellY[i]));
+    }
+
+    /**
+     * Moves particle {@code i} into the cell it is crossing into at this
+     * instant and collects the particles of the cells that have just become
+     * its neighbours. Those are the only new candidates for collisions.
+     *
+     * @param i the index of the particle
+     * @return the number of particles collected, see {@link #get(int)}
+     */
+    @Override
+    public int cross(int i) {
+        double dtX = timeToCross(store.rx(i), store.vx(i), cellX[i]);
+        double dtY = timeToCross(store.ry(i), store.vy(i), cellY[i]);
+
+        unlink(i);
+        found = 0;
+        if (dtX <= dtY) {
+            int dx = store.vx(i) > 0 ? +1 : -1;
+            cellX[i] = wrap(cellX[i] + dx);
+            // the column ahead of the new cell is the only newly adjacent one
+            for (int y = cellY[i] - 1; y <= cellY[i] + 1; y++) {
+                collect(cellX[i] + dx, y);
+            }
+        } else {
+            int dy = store.vy(i) > 0 ? +1 : -1;
+            cellY[i] = wrap(cellY[i] + dy);
+            for (int x = cellX[i] - 1; x <= cellX[i] + 1; x++) {
+                collect(x, cellY[i] + dy);
+            }
+        }
+        link(i);
+        return found;
+    }
+
+    /**
+     * Collects the particles in the cell of particle {@code i} and in the
+     * eight cells around it, including {@code i} itself.
+     *
+     * @param i the index of the particle
+     * @return the number of particles collected, see {@link #get(int)}
+     */
+    @Override
+    public int neighbours(int i) {
+        found = 0;
+        for (int x = cellX[i] - 1; x <= cellX[i] + 1; x++) {
+            for (int y = cellY[i] - 1; y <= cellY[i] + 1; y++) {
+                collect(x, y);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Collects the particles which may overlap the given rectangle, that is
+     * the particles in the cells it overlaps and in the cells around those.
+     *
+     * @param x0 the left edge of the rectangle
+     * @param y0 the bottom edge of the rectangle
+     * @param x1 the right edge of the rectangle
+     * @param y1 the top edge of the rectangle
+     * @return the number of particles collected, see {@link #get(int)}
+     */
+    @Override
+    public int query(double x0, double y0, double x1, double y1) {
+        found = 0;
+        int cx0 = clamp((int) Math.floor(x0 * m) - 1), cx1 = clamp((int) Math.floor(x1 * m) + 1);
+        int cy0 = clamp((int) Math.floor(y0 * m) - 1), cy1 = clamp((int) Math.floor(y1 * m) + 1);
+        for (int x = cx0; x <= cx1; x++) {
+            for (int y = cy0; y <= cy1; y++) {
+                collect(x, y);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the k-th particle collected by the last query.
+     *
+     * @param k the position in the result of the last query
+     * @return the index of the particle
+     */
+    @Override
+    public int get(int k) {
+        return buffer[k];
+    }
+
+    /**
+     * Returns whether the cells wrap around a periodic box with enough of
+     * them to tell the images of the particles apart.
+     *
+     * @return {@code true} if the grid can be used in a periodic box
+     */
+    @Override
+    public boolean wraps() {
+        return periodic && m >= PERIODIC_CELLS;
+    }
+
+    // time for a coordinate moving with velocity v to leave the cell c, the
+    // outermost boundaries are never crossed since walls are reached first,
+    // unless the box is periodic
+    private double timeToCross(double r, double v, int c) {
+        if (periodic) {
+            // the coordinate may have wrapped around a moment before or after
+            // its cell, take the image nearest to the cell
+            r -= Math.rint(r - (c + 0.5) * size);
+        }
+        if (v > 0 && (c < m - 1 || periodic)) {
+            return Math.max(0.0, ((c + 1) * size - r) / v);
+        } else if (v < 0 && (c > 0 || periodic)) {
+            return Math.max(0.0, (c * size - r) / v);
+        } else {
+            return INFINITY;
+        }
+    }
+
+    // appends the particles of cell (x, y) to the buffer, ignores cells outside
+    // the box or wraps them around if it is periodic
+    private void collect(int x, int y) {
+        if (periodic) {
+            x = wrap(x);
+            y = wrap(y);
+        } else if (x < 0 || x >= m || y < 0 || y >= m) {
+            return;
+        }
+        for (int j = head[x * m + y]; j != -1; j = next[j]) {
+            if (found == buffer.length) {
+                buffer = Arrays.copyOf(buffer, 2 * found);
+            }
+            buffer[found++] = j;
+        }
+    }
+
+    // pushes particle i to the front of the list of its cell
+    private void link(int i) {
+        int c = cellX[i] * m + cellY[i];
+        prev[i] = -1;
+        next[i] = head[c];
+        if (head[c] != -1) {
+            prev[head[c]] = i;
+        }
+        head[c] = i;
+    }
+
+    // removes particle i from the list of its cell
+    private void unlink(int i) {
+        if (prev[i] != -1) {
+            next[prev[i]] = next[i];
+        } else {
+            head[cellX[i] * m + cellY[i]] = next[i];
+        }
+        if (next[i] != -1) {
+            prev[next[i]] = prev[i];
+        }
+    }
+
+    // the cell coordinate c brought back into the box, cells are only ever
+    // left through its edges if it is periodic
+    private int wrap(int c) {
+        return c < 0 ? c + m : c >= m ? c - m : c;
+    }
+
+    private int clamp(int c) {
+        return Math.max(0, Math.min(m - 1, c));
+    }
+}
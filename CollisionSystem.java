@@ -16,27 +16,156 @@
  */
 
 import dependencies.*;
-import java.awt.Color;
-import java.util.PriorityQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The 2D-N-Particle Elastic collision simulator class. The class provides a
  * relatively efficient API for any simulations the client might want to do with
  * elastic 2-D particles. It deals with the events occurring during simulation.
- * It uses the {@code Particle} data type to achieve this goal. Events are
- * scheduled for each possible collisions and are processed in the chronological
- * order.
+ * It uses the {@code Particle} data type to achieve this goal, the particles are
+ * simulated in a {@code ParticleStore} holding their state in parallel arrays.
+ * Events are scheduled for each possible collisions and are processed in the
+ * chronological order.
  *
  * @author Manish Joshi
  */
 public class CollisionSystem {
 
+    private static final double INFINITY = Double.POSITIVE_INFINITY;
+    private static final double HORIZON_FACTOR = 2.0;   // prediction horizon in mean free times
+    private static final double REPAINT_FRACTION = 0.5; // dirty fraction of the canvas above which it is repainted whole
+
     private double HZ = 0.5;    // redraw frequency as redraws per clock tick (in Simulator time)
 
-    private PriorityQueue<Event> pq;    // the event priority queue
-    private Particle[] particles;       // the array of particles
+    private EventQueue pq;              // the event priority queue
+    private HeapEventQueue heap;        // the same queue when it is the default heap, for its counters
+    private Particle[] particles;       // the array of particles, null if simulating a store directly
+    private final ParticleStore store;  // the state of the particles being simulated
     private double t = 0.0;                   // simulation clock time
 
+    private BroadPhase broadPhase = BroadPhase.BRUTE_FORCE; // how the particles within reach are found
+    private boolean useLazyClocks = false;    // move only the particles taking part in an event
+    private boolean periodic = false;         // wrap the box around instead of bouncing off its walls
+    private SpatialIndex index;               // the broad phase, null for the brute force O(N) scan
+    private StaticGrid statics;               // the static particles, null if there are none
+    private int[] mobile;                     // the particles which are not static
+    private final List<Obstacle> obstacles = new CopyOnWriteArrayList<>();  // the obstacles, read by the display too
+    private ObstacleTree tree;                // the obstacles to predict with, null if there are none
+    private Scheduler scheduler = Scheduler.HEAP;   // the kind of event queue to simulate with
+
+    private double startHorizon = INFINITY;   // the horizon set, each simulation starts from it
+    private double horizon;                   // how far ahead of the clock events are predicted, as adapted
+    private double[] until;                   // end of the prediction window of each particle
+    private long changes;                     // velocity changes since the horizon was last adapted
+    private double since;                     // time at which the horizon was last adapted
+
+    private boolean headless = false;         // run without the Standard Draw window
+    private boolean useAsyncDisplay = false;  // draw the window on a thread of its own
+    private Rendering rendering = Rendering.SHAPES; // how the window draws the particles
+    private double density = INFINITY;        // particles per pixel above which a heatmap is drawn
+    private boolean useEnergyHeatmap = false; // color the heatmap by kinetic energy
+    private boolean useViewport = false;      // let the user zoom and pan the window
+    private Viewport viewport;                // the region in view, null if not zoomable
+    private FrameListener display;            // the Standard Draw window, null if not opened
+    private final List<FrameListener> listeners = new ArrayList<>();  // observers of the redraw events
+    private double fps, speed;                // wall clock pacing of the frames, 0 if paced by HZ
+    private FramePacer pacer;                 // paces the frames, null if paced by HZ
+
+    /**
+     * The kinds of event queue the simulator can schedule events with.
+     */
+    public enum Scheduler {
+        /**
+         * A binary heap holding every predicted event, stale events are
+         * discarded when they reach the top. This is the default.
+         */
+        HEAP,
+        /**
+         * An indexed heap holding only the earliest event of each particle,
+         * stale events are removed as soon as a particle changes.
+         */
+        INDEXED,
+        /**
+         * A calendar queue holding every predicted event in buckets of time,
+         * which adds and removes events in constant amortized time when
+         * events bunch up just ahead of the clock, as in dense gases.
+         */
+        CALENDAR,
+        /**
+         * A 4-ary heap holding every predicted event in primitive arrays,
+         * which does not allocate any objects once it has grown to its working
+         * size.
+         */
+        PRIMITIVE,
+        /**
+         * The {@link #PRIMITIVE} heap with its records kept in native memory
+         * outside of the Java heap, so the garbage collector never scans them.
+         */
+        OFF_HEAP
+    }
+
+    /**
+     * The ways the simulator can find the particles a particle may hit.
+     */
+    public enum BroadPhase {
+        /**
+         * Every pair of particles is checked, which costs a scan of all the
+         * particles for each collision. This is the default.
+         */
+        BRUTE_FORCE,
+        /**
+         * A uniform grid of cells at least as wide as the largest particle,
+         * each particle is checked against the particles of the cells around
+         * its own.
+         */
+        CELL_LIST,
+        /**
+         * A grid of its own for each class of radius, each with cells as wide
+         * as the particles of the class, so that a few large particles do not
+         * make the small ones crowd into large cells.
+         */
+        HIERARCHICAL_GRID,
+        /**
+         * An adaptive quadtree whose leaves are split where the particles
+         * crowd and merged where they thin out, for densities varying across
+         * the box. Periodic boxes are checked pair by pair instead.
+         */
+        QUADTREE
+    }
+
+    /**
+     * The ways the Standard Draw window can draw the particles with.
+     */
+    public enum Rendering {
+        /**
+         * Each particle is drawn as a circle by the Standard Draw library.
+         * This is the default.
+         */
+        SHAPES,
+        /**
+         * Each particle is drawn by copying a pre-rasterized sprite of its
+         * radius and color into the pixels of the canvas, which is several
+         * times faster for large systems.
+         */
+        STAMPS,
+        /**
+         * The sprites of {@link #STAMPS} drawn by tiles of the canvas in
+         * parallel on all the cores, for hundreds of thousands of particles
+         * or large canvases.
+         */
+        TILES,
+        /**
+         * The sprites of {@link #STAMPS} drawn only over the parts of the
+         * canvas where particles moved or changed color since the last frame,
+         * for scenes where most particles stand still between frames. When
+         * more than half of the canvas changed it is repainted whole, which
+         * is then cheaper.
+         */
+        INCREMENTAL
+    }
+
     /**
      * Constructs the simulator class with given array of particles.
      *
@@ -45,46 +174,150 @@ public class CollisionSystem {
     public CollisionSystem(Particle[] particles) {
         // make a defensive copy to support immuatability
         this.particles = particles.clone();
+        this.store = new ParticleStore(this.particles);
+    }
 
-        // set default double buffering 
-        useDoubleBuffering(true);
+    /**
+     * Constructs the simulator class with the particles of given store. This
+     * avoids creating a {@code Particle} object per particle for very large
+     * systems. The store is simulated in place.
+     *
+     * @param store the particles
+     */
+    public CollisionSystem(ParticleStore store) {
+        this.store = store;
     }
 
     // pushes the upcoming collision events to the priority queue if they occur within the specified time limit
-    private void predict(Particle a, double limit) {
-        if (a == null) {
+    private void predict(int a, double limit) {
+        if (a < 0 || store.isStatic(a)) {
             return;
         }
-        for (Particle p : particles) {
-            // check possible collisions b/w a and p
-            double dt = a.timeToHit(p);
-            if (t + dt <= limit) {
-                // if collision is possible within time limit, add to the pq
-                pq.add(new Event(t + dt, a, p));
+        store.moveTo(a, t);
+
+        // with a horizon only the events inside the window are pushed, and a
+        // marker at its end to predict the rest later
+        double end = limit;
+        if (horizon < INFINITY) {
+            end = Math.min(limit, t + horizon);
+        }
+        if (periodic && index == null) {
+            // in a periodic box a only sees the nearest image of each particle
+            // for a while, the window ends before another image can be hit
+            for (int p : mobile) {
+                end = Math.min(end, t + store.imageLifetime(a, p));
             }
         }
-        double dtV = a.timeToHitVerticalWall();
-        if (t + dtV <= limit) {
-            pq.add(new Event(t + dtV, null, a));
+        until[a] = end;
+        if (end < limit) {
+            pq.add(end, a, Event.HORIZON);
         }
-        double dtH = a.timeToHitHorizontalWall();
-        if (t + dtH <= limit) {
-            pq.add(new Event(t + dtH, a, null));
+
+        if (index == null) {
+            for (int p : mobile) {
+                predict(a, p, end);
+            }
+        } else {
+            // only particles within reach can be hit before a leaves its region
+            int n = index.neighbours(a);
+            for (int k = 0; k < n; k++) {
+                predict(a, index.get(k), end);
+            }
+            // a crossing at the very end of the window is left to the marker,
+            // which would otherwise push it a second time
+            double dtC = index.timeToCross(a);
+            if (t + dtC < end) {
+                pq.add(t + dtC, a, a);
+            }
+        }
+        double dtV = store.timeToHitVerticalWall(a);
+        if (t + dtV <= end) {
+            pq.add(t + dtV, a, Event.VERTICAL_WALL);
+        }
+        double dtH = store.timeToHitHorizontalWall(a);
+        if (t + dtH <= end) {
+            pq.add(t + dtH, a, Event.HORIZONTAL_WALL);
+        }
+        // only the first obstacle and the first static particle in the way
+        // can be hit, and not after a reaches a wall
+        double reach = Math.min(end - t, Math.min(dtV, dtH));
+        if (tree != null) {
+            int k = tree.cast(store, a, reach);
+            if (k != -1) {
+                reach = tree.time();
+                pq.add(t + reach, a, Event.obstacle(k));
+            }
+        }
+        if (statics != null) {
+            int s = statics.cast(a, reach);
+            if (s != -1) {
+                pq.add(t + statics.time(), a, s);
+            }
         }
     }
 
-    // Handles the Redraw event by redrawing all the particles with updated positions
+    // pushes the collision event b/w a and p to the priority queue if it occurs within the time limit
+    private void predict(int a, int p, double limit) {
+        store.moveTo(p, t);
+        double dt = store.timeToHit(a, p);
+        if (t + dt <= limit) {
+            pq.add(t + dt, a, p);
+        }
+    }
+
+    // Handles the crossing event by moving a into its new region of the broad
+    // phase, the velocity of a is unchanged so only the particles which came
+    // within reach and the next crossing need to be predicted
+    private void cross(int a, double limit) {
+        if (pq.earliestOnly()) {
+            // the crossing was the only event kept for a
+            index.cross(a);
+            predict(a, limit);
+            return;
+        }
+        // stay inside the window a was last predicted for
+        double end = horizon < INFINITY ? until[a] : limit;
+        int n = index.cross(a);
+        for (int k = 0; k < n; k++) {
+            predict(a, index.get(k), end);
+        }
+        double dtC = index.timeToCross(a);
+        if (t + dtC < end) {
+            pq.add(t + dtC, a, a);
+        }
+    }
+
+    // measures the rate of collisions once every particle has changed its
+    // velocity about once, and sets the horizon to a few mean free times
+    private void adaptHorizon(int changed) {
+        changes += changed;
+        if (changes < mobile.length || t <= since) {
+            return;
+        }
+        double freeTime = mobile.length * (t - since) / changes;
+        horizon = HORIZON_FACTOR * freeTime;
+        changes = 0;
+        since = t;
+    }
+
+    // Handles the Redraw event by passing all the particles with updated positions to the listeners
     private void redraw(double limit) {
-        StdDraw.clear();    // clear the canvas
-        for (Particle p : particles) {
-            p.draw();       // redraw each paricle
+        // in case the clocks are lazy, the viewport moves only the particles in view
+        if (viewport == null || !listeners.isEmpty()) {
+            for (int i : mobile) {
+                store.moveTo(i, t);
+            }
+        }
+        if (display != null && (pacer == null || pacer.frame(t))) {
+            display.frame(t, store);
+        }
+        for (FrameListener listener : listeners) {
+            listener.frame(t, store);
         }
-        StdDraw.show();     // in case double buffering is used in StdDraw
-        StdDraw.pause(20);  // freeze StdDraw for 20 ms so that frame may be observed
 
-        // schedule redraw of frames based on Framerate frequency 
+        // schedule redraw of frames based on Framerate frequency, or on the wall clock
         if (t < limit) {
-            pq.add(new Event(t + 1.0 / HZ, null, null));
+            pq.add(t + (pacer == null ? 1.0 / HZ : pacer.interval()), -1, -1);
         }
     }
 
@@ -103,6 +336,312 @@ public class CollisionSystem {
         }
     }
 
+    /**
+     * Runs the simulator headless. A headless simulator never opens the
+     * Standard Draw window nor loads any AWT class, and only schedules redraw
+     * events for the frame listeners added to it, if any. Without listeners
+     * the simulation runs at full speed, which suits batch runs on machines
+     * without a display. Use a {@code ParticleStore} rather than
+     * {@code Particle} objects to avoid AWT completely.
+     * <p>
+     * By default this is disabled, and a {@code StdDrawDisplay} is opened on
+     * the first call to {@link #simulate(double)}.
+     *
+     * @param headless if {@code true} the simulator runs without a display
+     */
+    public void setHeadless(boolean headless) {
+        this.headless = headless;
+    }
+
+    /**
+     * Draws the Standard Draw window on a thread of its own. The simulator
+     * then only copies the positions of the particles on each redraw event
+     * and never waits on the display, which draws the newest copy at 50
+     * frames per second and interpolates between the last two copies. Since
+     * the simulation is no longer paused after every frame it runs as fast as
+     * it can, use a lower redraw frequency to slow the animation down.
+     * <p>
+     * By default this is disabled. The setting takes effect when the window
+     * is opened on the first call to {@link #simulate(double)}.
+     *
+     * @param yes if {@code true} the window is drawn asynchronously
+     */
+    public void useAsyncDisplay(boolean yes) {
+        this.useAsyncDisplay = yes;
+    }
+
+    /**
+     * Selects how the Standard Draw window draws the particles. The
+     * {@link Rendering#STAMPS} renderer writes the pixels of the canvas
+     * directly, and takes much less time per frame than the default when
+     * there are thousands of particles. The {@link Rendering#TILES} renderer
+     * does the same on all the cores, and the {@link Rendering#INCREMENTAL}
+     * renderer only repaints what changed since the last frame.
+     * <p>
+     * The setting takes effect when the window is opened on the first call to
+     * {@link #simulate(double)}.
+     *
+     * @param rendering the way of drawing the particles
+     */
+    public void setRendering(Rendering rendering) {
+        this.rendering = rendering;
+    }
+
+    /**
+     * Sets the level of detail of the Standard Draw window. When there are
+     * more particles per pixel of the canvas than the given density, frames
+     * show a heatmap of the particles instead of the particles themselves,
+     * which takes time linear in the number of particles and no drawing of
+     * discs.
+     * <p>
+     * By default the particles are always drawn one by one. The setting takes
+     * effect when the window is opened on the first call to
+     * {@link #simulate(double)}.
+     *
+     * @param density the number of particles per pixel above which a heatmap
+     * is drawn
+     */
+    public void setLevelOfDetail(double density) {
+        this.density = density;
+    }
+
+    /**
+     * Colors the heatmap drawn at a low level of detail by the mean kinetic
+     * energy of the particles in each pixel instead of their number.
+     *
+     * @param yes if {@code true} the heatmap shows kinetic energy
+     */
+    public void useEnergyHeatmap(boolean yes) {
+        this.useEnergyHeatmap = yes;
+    }
+
+    /**
+     * Lets the user zoom into and pan over the Standard Draw window. Typing
+     * {@code +} or {@code -} zooms in or out, the arrow keys or dragging
+     * with the mouse pan, and typing {@code 0} shows the whole box again.
+     * Only the particles in view are moved to the time of the frame, copied
+     * and drawn, and they are found through the broad phase without looking
+     * at the others, so zooming into a large system makes the frames cheaper
+     * in proportion. The viewport therefore needs a broad phase, and replaces
+     * the default {@link BroadPhase#BRUTE_FORCE} with the
+     * {@link BroadPhase#CELL_LIST}, see {@link #setBroadPhase(BroadPhase)}.
+     * <p>
+     * By default this is disabled. The setting takes effect when the window
+     * is opened on the first call to {@link #simulate(double)}.
+     *
+     * @param yes if {@code true} the window can be zoomed and panned
+     */
+    public void useViewport(boolean yes) {
+        this.useViewport = yes;
+    }
+
+    // creates the renderer of the selected kind
+    private Renderer newRenderer() {
+        Renderer renderer;
+        if (rendering == Rendering.STAMPS) {
+            renderer = new StampRenderer();
+        } else if (rendering == Rendering.TILES) {
+            renderer = new TileRenderer();
+        } else if (rendering == Rendering.INCREMENTAL) {
+            renderer = new DirtyRenderer(REPAINT_FRACTION);
+        } else {
+            renderer = new ShapeRenderer();
+        }
+        if (density < INFINITY) {
+            renderer = new DetailRenderer(renderer, new HeatmapRenderer(useEnergyHeatmap), density);
+        }
+        return new ObstacleRenderer(renderer, obstacles);
+    }
+
+    /**
+     * Adds a listener to be called on every redraw event, in addition to the
+     * display if the simulator is not headless.
+     *
+     * @param listener the listener
+     */
+    public void addFrameListener(FrameListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Adds an obstacle to the box, such as a {@code Segment} or an
+     * {@code Arc}. Particles bounce off obstacles elastically as off the walls
+     * of the box. The obstacle should not overlap any particle.
+     * <p>
+     * The obstacle takes part in the simulation from the next call to
+     * {@link #simulate(double)}.
+     *
+     * @param obstacle the obstacle
+     */
+    public void addObstacle(Obstacle obstacle) {
+        obstacles.add(obstacle);
+    }
+
+    /**
+     * Enables the uniform cell list broad phase. When enabled each particle is
+     * only checked against the particles in its own and the neighbouring
+     * cells, and crossings of cell boundaries are scheduled as events. This
+     * makes each collision cost constant expected work instead of a scan of
+     * all the particles, which pays off for large systems.
+     * <p>
+     * By default this is disabled. The setting takes effect on the next call
+     * to {@link #simulate(double)}.
+     *
+     * @param yes if {@code true} the cell list is used, otherwise every pair
+     * of particles is checked
+     */
+    public void useCellGrid(boolean yes) {
+        this.broadPhase = yes ? BroadPhase.CELL_LIST : BroadPhase.BRUTE_FORCE;
+    }
+
+    /**
+     * Selects how the simulator finds the particles a particle may hit. The
+     * {@link BroadPhase#CELL_LIST} suits particles of similar sizes, see
+     * {@link #useCellGrid(boolean)}, and the
+     * {@link BroadPhase#HIERARCHICAL_GRID} keeps the cost of each collision
+     * constant when the radii differ by orders of magnitude, while the
+     * {@link BroadPhase#QUADTREE} adapts to particles crowding in parts of the
+     * box and leaving others empty.
+     * <p>
+     * By default every pair of particles is checked. The setting takes effect
+     * on the next call to {@link #simulate(double)}.
+     *
+     * @param broadPhase the broad phase
+     */
+    public void setBroadPhase(BroadPhase broadPhase) {
+        this.broadPhase = broadPhase;
+    }
+
+    /**
+     * Makes the box periodic. When enabled a particle reaching a wall comes
+     * back in through the opposite wall, and particles collide across the
+     * walls with the nearest images of each other, so a system behaves as a
+     * small part of an unbounded one without the effects of walls. With the
+     * cell list the cells wrap around the walls too, so each event keeps its
+     * constant cost, provided there are at least five cells along each side
+     * of the box, eight on every level of the hierarchical grid, otherwise
+     * every pair of particles is checked, as with the quadtree. Without a
+     * broad phase each particle is predicted again whenever the nearest image
+     * of another particle may change.
+     * <p>
+     * Static particles and obstacles are not seen across the walls. The sum
+     * of the radii of any two particles must be less than half the width of
+     * the box.
+     * <p>
+     * By default this is disabled. The setting takes effect on the next call
+     * to {@link #simulate(double)}.
+     *
+     * @param yes if {@code true} the box is periodic, otherwise it is bounded
+     * by reflecting walls
+     */
+    public void usePeriodicBoundaries(boolean yes) {
+        this.periodic = yes;
+    }
+
+    /**
+     * Enables lazy particle clocks. When enabled only the particles taking
+     * part in an event are brought forward to the time of the event, every
+     * other particle stays where it was last updated and is moved on when it
+     * is predicted against, redrawn, or when the simulation ends. Together
+     * with the cell list this removes the scan of all the particles from the
+     * cost of each event.
+     * <p>
+     * By default this is disabled. The setting takes effect on the next call
+     * to {@link #simulate(double)}.
+     *
+     * @param yes if {@code true} the clocks are lazy, otherwise all the
+     * particles are moved on every event
+     */
+    public void useLazyClocks(boolean yes) {
+        this.useLazyClocks = yes;
+    }
+
+    /**
+     * Limits the prediction of events to the given time ahead of the clock.
+     * Instead of every event up to the time limit of the simulation, only the
+     * events inside a window of this length are queued for each particle,
+     * together with a marker at the end of the window at which the particle
+     * is predicted again. Far away events seldom survive the collisions in
+     * between, so this keeps the queue small for long simulations.
+     * <p>
+     * The given value is only the starting point, the horizon is adapted
+     * during the simulation to a couple of mean free times measured from the
+     * rate of collisions. By default the horizon is infinite. The setting
+     * takes effect on the next call to {@link #simulate(double)}.
+     *
+     * @param horizon the initial length of the prediction window, or
+     * {@code Double.POSITIVE_INFINITY} to predict every event up to the limit
+     * @throws IllegalArgumentException if the horizon is not positive
+     */
+    public void setPredictionHorizon(double horizon) {
+        if (!(horizon > 0)) {
+            throw new IllegalArgumentException("prediction horizon must be positive");
+        }
+        this.startHorizon = horizon;
+    }
+
+    /**
+     * Selects the kind of event queue used by the simulator. The
+     * {@link Scheduler#INDEXED} queue bounds the number of pending events by
+     * the number of particles, which keeps memory and the cost of each queue
+     * operation low for long simulations. The {@link Scheduler#CALENDAR}
+     * queue is faster than the default heap when many events are pending, and
+     * the {@link Scheduler#PRIMITIVE} queue avoids garbage collection. The
+     * {@link Scheduler#OFF_HEAP} queue goes further and keeps the events out
+     * of the Java heap, pair it with an {@code OffHeapParticleStore} to keep
+     * the particles there too.
+     * <p>
+     * The setting takes effect on the next call to {@link #simulate(double)}.
+     *
+     * @param scheduler the kind of event queue
+     */
+    public void setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Returns the number of times the default heap was compacted during the
+     * last call to {@link #simulate(double)}. The heap drops its stale events
+     * in one pass once they outnumber the valid ones, other schedulers never
+     * compact.
+     *
+     * @return the number of compactions, 0 for the other schedulers
+     */
+    public int compactions() {
+        return heap == null ? 0 : heap.compactions();
+    }
+
+    /**
+     * Returns the number of stale events dropped by the compactions of the
+     * last call to {@link #simulate(double)}, see {@link #compactions()}.
+     *
+     * @return the number of dropped events
+     */
+    public long droppedEvents() {
+        return heap == null ? 0 : heap.dropped();
+    }
+
+    /**
+     * Returns the time spent compacting the default heap during the last call
+     * to {@link #simulate(double)}, see {@link #compactions()}.
+     *
+     * @return the time spent compacting in nanoseconds
+     */
+    public long compactionTime() {
+        return heap == null ? 0 : heap.compactionTime();
+    }
+
+    /**
+     * Returns the number of frames dropped to keep up with the wall clock
+     * during the last call to {@link #simulate(double)}, see
+     * {@link #setFrameRate(double, double)}.
+     *
+     * @return the number of dropped frames
+     */
+    public long droppedFrames() {
+        return pacer == null ? 0 : pacer.dropped();
+    }
+
     /**
      * Simulates the system of particles for the given amount of time limit
      * using Event driven programming.
@@ -111,42 +650,154 @@ public class CollisionSystem {
      */
     public void simulate(double limit) {
         // initialize the PQ with collision events and redraw event
-        pq = new PriorityQueue<>();
-        for (Particle a : particles) {
+        heap = null;
+        if (scheduler == Scheduler.INDEXED) {
+            pq = new IndexedEventQueue(store);
+        } else if (scheduler == Scheduler.CALENDAR) {
+            pq = new CalendarEventQueue(store);
+        } else if (scheduler == Scheduler.PRIMITIVE) {
+            pq = new PrimitiveEventQueue(store);
+        } else if (scheduler == Scheduler.OFF_HEAP) {
+            pq = new OffHeapEventQueue(store);
+        } else {
+            pq = heap = new HeapEventQueue(store);
+        }
+        int moving = 0;
+        for (int i = 0; i < store.size(); i++) {
+            if (!store.isStatic(i)) {
+                moving++;
+            }
+        }
+        mobile = new int[moving];
+        for (int i = 0, k = 0; i < store.size(); i++) {
+            if (!store.isStatic(i)) {
+                mobile[k++] = i;
+            }
+        }
+        statics = moving < store.size() ? new StaticGrid(store) : null;
+        double maxRadius = 0.0;
+        for (int i : mobile) {
+            maxRadius = Math.max(maxRadius, store.radius(i));
+        }
+        tree = obstacles.isEmpty() ? null : new ObstacleTree(obstacles, maxRadius);
+        store.setPeriodic(periodic);
+        BroadPhase phase = broadPhase;
+        if (phase == BroadPhase.BRUTE_FORCE && useViewport && !headless) {
+            phase = BroadPhase.CELL_LIST;   // the viewport finds the particles in view through it
+        }
+        if (phase == BroadPhase.CELL_LIST) {
+            index = new CellGrid(store);
+        } else if (phase == BroadPhase.HIERARCHICAL_GRID) {
+            index = new HierarchicalGrid(store);
+        } else if (phase == BroadPhase.QUADTREE) {
+            index = new QuadTree(store);
+        } else {
+            index = null;
+        }
+        if (index != null && periodic && !index.wraps()) {
+            index = null;   // the images of the particles cannot be told apart
+        }
+        until = new double[store.size()];
+        horizon = startHorizon;
+        changes = 0;
+        since = t;
+        for (int a : mobile) {
             predict(a, limit);
         }
-        pq.add(new Event(0, null, null));       // add redraw event
+        if (!headless && display == null) {
+            Renderer renderer = newRenderer();
+            viewport = useViewport ? new Viewport() : null;
+            display = useAsyncDisplay ? new AsyncDisplay(50, true, renderer, viewport)
+                    : new StdDrawDisplay(renderer, fps > 0 ? 0 : 20, viewport);
+        }
+        if (viewport != null) {
+            viewport.index(index, statics); // find the particles in view with the broad phase, if any
+        }
+        pacer = fps > 0 && display != null ? new FramePacer(fps, speed) : null;
+        for (FrameListener listener : listeners) {
+            listener.start(display != null);
+        }
+        if (display != null || !listeners.isEmpty()) {
+            pq.add(0, -1, -1);       // add redraw event
+        }
 
         // the main event driven simulation loop
         while (!pq.isEmpty()) {
 
             // get impending event, drive the simulation, discard if invalids
             Event e = pq.remove();
-            if (!e.isValid()) {
+            if (!e.isValid(store)) {
                 continue;
             }
 
-            // advance all particles in time and bring them to time of current event
-            for (Particle p : particles) {
-                p.move(e.time - t);
+            // advance all particles in time and bring them to time of current event,
+            // or only the ones taking part in it if the clocks are lazy
+            if (useLazyClocks) {
+                if (e.a != -1) {
+                    store.moveTo(e.a, e.time);
+                }
+                if (e.b >= 0) {
+                    store.moveTo(e.b, e.time);
+                }
+            } else {
+                for (int i : mobile) {
+                    store.moveTo(i, e.time);
+                }
             }
             t = e.time;         // advance the clock
 
             // update the particle velocities
-            Particle a = e.a, b = e.b;
-            if (a != null && b != null) {
-                a.bounceOff(b);
-            } else if (a != null) {
-                a.bounceOffHorizontalWall();
-            } else if (b != null) {
-                b.bounceOffVerticalWall();
-            } else {
+            int a = e.a, b = e.b;
+            if (a == -1) {
                 redraw(limit);
                 continue;
+            } else if (a == b) {
+                cross(a, limit);
+                continue;
+            } else if (b == Event.HORIZON) {
+                predict(a, limit);      // a reached the end of its prediction window
+                continue;
+            } else if (b >= 0) {
+                store.bounceOff(a, b);
+            } else if (b == Event.VERTICAL_WALL && periodic) {
+                store.crossVerticalWall(a);     // a comes back in through the opposite wall
+            } else if (b == Event.HORIZONTAL_WALL && periodic) {
+                store.crossHorizontalWall(a);
+            } else if (b == Event.VERTICAL_WALL) {
+                store.bounceOffVerticalWall(a);
+            } else if (b == Event.HORIZONTAL_WALL) {
+                store.bounceOffHorizontalWall(a);
+            } else {
+                tree.obstacle(Event.obstacleId(b)).bounce(store, a);
+            }
+            // a static particle hit by a keeps its velocity and its events
+            boolean moved = b >= 0 && !store.isStatic(b);
+            if (horizon < INFINITY) {
+                adaptHorizon(moved ? 2 : 1);
+            }
+
+            // drop the events made stale by the new velocities, where the queue supports it
+            pq.invalidate(a);
+            if (moved) {
+                pq.invalidate(b);
             }
 
             predict(a, limit);      // add new events related to a 
             predict(b, limit);      // and b
+
+            // and predict again the particles which lost their events with a or b
+            for (int o = pq.orphan(); o != -1; o = pq.orphan()) {
+                if (o != a && o != b) {
+                    predict(o, limit);
+                }
+            }
+        }
+        t = Math.max(t, limit);
+        for (int i = 0; i < store.size(); i++) {
+            store.moveTo(i, t); // leave every particle at the final time
+        }
+        if (particles != null) {
+            store.copyTo(particles);
         }
         System.out.println("Simulation over !");
     }
@@ -163,68 +814,33 @@ public class CollisionSystem {
      */
     public void setRedrawHZ(double HZ) {
         this.HZ = HZ;
+        this.fps = 0;
     }
 
     /**
-     * ************************************************************************
-     * This class encapsulates the details associated with an event during
-     * simulation. Event implicitly can be of three types based on whether a or
-     * b are null or not. We use this strategy to avoid use of an Event type
-     * classifying variable in the class.
-     * <pre>
-     *      - a and b both null:         redraw event
-     *      - a null, b not null:        collision with vertical wall
-     *      - a not null, b null:        collision with horizontal wall
-     *      - a and b both not null      binary collision between a and b
-     * </pre >
-     **************************************************************************
+     * Paces the frames of the Standard Draw window to the wall clock instead
+     * of the redraw frequency. The window then shows the given number of
+     * frames per second of real time, with simulated time passing
+     * {@code speed} times as fast as real time. The simulator measures how
+     * fast it gets through simulated time and spaces the redraw events to
+     * match, so systems of any speed animate smoothly. If it cannot keep up,
+     * simulated time passes as fast as it can manage and frames which would be
+     * late are dropped instead of stalling the simulation. Frame listeners
+     * still get every redraw event.
+     * <p>
+     * The setting takes effect when the window is opened on the first call to
+     * {@link #simulate(double)}, and is undone by a later call to
+     * {@link #setRedrawHZ(double)}.
+     *
+     * @param fps the number of frames per second of real time
+     * @param speed the number of seconds of simulated time per second of real time
      */
-    private static class Event implements Comparable<Event> {
-
-        public double time;             // time till collision event
-        public Particle a, b;           // the paricles which shall collide
-        public int countA, countB;      // collision counts at Event creation
-
-        // creates a new event scheduled at given time involving a and b
-        public Event(double time, Particle a, Particle b) {
-            this.time = time;
-            this.a = a;
-            this.b = b;
-            if (a != null) {
-                countA = a.count();
-            } else {
-                countA = -1;    // sentinel value
-            }
-            if (b != null) {
-                countB = b.count();
-            } else {
-                countB = -1;
-            }
-        }
-
-        @Override
-        public int compareTo(Event that) {
-            double dt = this.time - that.time;
-            if (dt < 0) {
-                return -1;
-            } else if (dt > 0) {
-                return +1;
-            } else {
-                return 0;
-            }
-        }
-
-        // has any intervening event has occured since creation of this event
-        public boolean isValid() {
-            if (a != null && a.count() != countA) {
-                return false;
-            }
-            if (b != null && b.count() != countB) {
-                return false;
-            }
-            return true;
+    public void setFrameRate(double fps, double speed) {
+        if (!(fps > 0) || !(speed > 0)) {
+            throw new IllegalArgumentException("frame rate and speed must be positive");
         }
-
+        this.fps = fps;
+        this.speed = speed;
     }
 
     //  for unit testing of the class
@@ -258,8 +874,7 @@ public class CollisionSystem {
                 int r         = StdIn.readInt();
                 int g         = StdIn.readInt();
                 int b         = StdIn.readInt();
-                Color color   = new Color(r, g, b);
-                particles[i] = new Particle(rx, ry, vx, vy, radius, mass, color);
+                particles[i] = new Particle(rx, ry, vx, vy, radius, mass, r << 16 | g << 8 | b);
                 System.out.println("Particle added " + radius);
             }
         }
@@ -267,6 +882,8 @@ public class CollisionSystem {
         // create collision system and simulate
         CollisionSystem system = new CollisionSystem(particles);
         system.setRedrawHZ(10);
+        system.useCellGrid(true);
+        system.useLazyClocks(true);
         system.simulate(10000);
            }
 
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.geom.Path2D;
+
+/**
+ * Chooses the level of detail of each frame. While there are few particles
+ * per pixel of the canvas they are drawn one by one, and above a given
+ * density the frame is drawn as a heatmap instead.
+ *
+ * @author Manish Joshi
+ */
+class DetailRenderer implements Renderer {
+
+    private final Renderer detail;      // draws the particles one by one
+    private final Renderer heatmap;     // draws their density
+    private final double density;       // particles per pixel above which the heatmap is drawn
+    private boolean coarse;             // true if the last frame was a heatmap
+
+    /**
+     * Initializes a renderer switching between the given ones.
+     *
+     * @param detail the renderer drawing the particles one by one
+     * @param heatmap the renderer drawing their density
+     * @param density the number of particles per pixel above which the
+     * heatmap is drawn
+     */
+    DetailRenderer(Renderer detail, Renderer heatmap, double density) {
+        this.detail = detail;
+        this.heatmap = heatmap;
+        this.density = density;
+    }
+
+    @Override
+    public void render(Snapshot s, Canvas c) {
+        if (s.n > density * c.width * c.height) {
+            heatmap.render(s, c);
+            coarse = true;
+        } else {
+            if (coarse) {
+                detail.reset();     // the heatmap drew over its last frame
+                coarse = false;
+            }
+            detail.render(s, c);
+        }
+    }
+
+    @Override
+    public boolean repainted(Path2D path) {
+        return coarse ? heatmap.repainted(path) : detail.repainted(path);
+    }
+}
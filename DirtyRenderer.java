@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Draws the particles with the sprites of the {@code StampRenderer}, but only
+ * repaints the parts of the canvas which changed since the last frame. The
+ * box of pixels each particle covered in the last frame is remembered, and
+ * when a particle moves by a pixel or changes color both its old and its new
+ * box are marked dirty. The canvas is split into small square tiles, and only
+ * the tiles touching a dirty box are cleared and have the particles
+ * overlapping them stamped again, in the order of the snapshot, so the frame
+ * is the same as a full repaint.
+ * <p>
+ * In scenes where few particles move per frame, like a heavy particle in a
+ * slow gas, most of the canvas is left as it was. When more than a given
+ * fraction of the tiles is dirty the whole canvas is repainted instead.
+ * Anything drawn over the particles, such as the obstacles, must only be drawn
+ * again over the tiles repainted, see {@link #repainted(Path2D)}.
+ *
+ * @author Manish Joshi
+ */
+class DirtyRenderer implements Renderer {
+
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int TILE = 16;         // width and height of a tile in pixels
+
+    private final double threshold;             // fraction of dirty tiles above which all is repainted
+    private final Sprite.Cache sprites = new Sprite.Cache();
+
+    private BufferedImage last;                 // the image of the last frame, null to repaint all
+    private int n;                              // number of particles in the last frame
+    private Sprite[] sprite = new Sprite[0];    // the sprite of each particle in the last frame
+    private int[] left = new int[0], top = new int[0];  // and its top left corner
+    private char[] color = new char[0];         // and its color
+
+    // the frame being drawn
+    private int width, height;                  // the size of the canvas
+    private int columns, rows;                  // number of tiles along each axis
+    private boolean[] dirty = new boolean[0];   // the tiles to repaint
+    private int dirtyCount;                     // number of dirty tiles
+    private boolean full;                       // true if the whole canvas was repainted
+
+    /**
+     * Initializes a renderer repainting the whole canvas when more than the
+     * given fraction of it changed.
+     *
+     * @param threshold the fraction of the canvas above which it is repainted
+     */
+    DirtyRenderer(double threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void render(Snapshot s, Canvas canvas) {
+        BufferedImage image = canvas.image;
+        int[] pixels = canvas.pixels;
+        full = image != last || s.n != n;
+        width = canvas.width;
+        height = canvas.height;
+        columns = (width + TILE - 1) / TILE;
+        rows = (height + TILE - 1) / TILE;
+        if (dirty.length < columns * rows) {
+            dirty = new boolean[columns * rows];
+        }
+        if (sprite.length < s.n) {
+            sprite = Arrays.copyOf(sprite, s.n);
+            left = Arrays.copyOf(left, s.n);
+            top = Arrays.copyOf(top, s.n);
+            color = Arrays.copyOf(color, s.n);
+        }
+
+        // find the sprites of the new frame and mark the tiles they leave and enter
+        Arrays.fill(dirty, 0, columns * rows, false);
+        dirtyCount = 0;
+        for (int i = 0; i < s.n; i++) {
+            Sprite p = sprites.get(s.radius[i] * canvas.scale(), Palette.rgb(s.color[i]));
+            int l = p.left(canvas.x0 + s.rx[i] * canvas.sx);
+            int t = p.top(canvas.y0 + s.ry[i] * canvas.sy);
+            if (!full && (p != sprite[i] || l != left[i] || t != top[i] || s.color[i] != color[i])) {
+                mark(left[i], top[i], sprite[i].size());
+                mark(l, t, p.size());
+            }
+            sprite[i] = p;
+            left[i] = l;
+            top[i] = t;
+            color[i] = s.color[i];
+        }
+        last = image;
+        n = s.n;
+
+        if (full || dirtyCount > threshold * columns * rows) {
+            full = true;
+            Arrays.fill(pixels, WHITE);
+            for (int i = 0; i < n; i++) {
+                sprite[i].stamp(pixels, width, left[i], top[i], 0, 0, width, height);
+            }
+            return;
+        }
+        if (dirtyCount == 0) {
+            return;
+        }
+
+        // clear the dirty tiles and stamp the particles overlapping them, in order
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                if (dirty[r * columns + c]) {
+                    int tx = c * TILE, ty = r * TILE;
+                    int tx1 = Math.min(tx + TILE, width), ty1 = Math.min(ty + TILE, height);
+                    for (int y = ty; y < ty1; y++) {
+                        Arrays.fill(pixels, y * width + tx, y * width + tx1, WHITE);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            int size = sprite[i].size();
+            int c0 = Math.max(0, Math.floorDiv(left[i], TILE));
+            int c1 = Math.min(columns - 1, Math.floorDiv(left[i] + size - 1, TILE));
+            int r0 = Math.max(0, Math.floorDiv(top[i], TILE));
+            int r1 = Math.min(rows - 1, Math.floorDiv(top[i] + size - 1, TILE));
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    if (dirty[r * columns + c]) {
+                        int tx = c * TILE, ty = r * TILE;
+                        sprite[i].stamp(pixels, width, left[i], top[i],
+                                tx, ty, Math.min(tx + TILE, width), Math.min(ty + TILE, height));
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        last = null;
+    }
+
+    @Override
+    public boolean repainted(Path2D path) {
+        if (full) {
+            return false;
+        }
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                if (dirty[r * columns + c]) {
+                    int tx = c * TILE, ty = r * TILE;
+                    int tx1 = Math.min(tx + TILE, width), ty1 = Math.min(ty + TILE, height);
+                    path.moveTo(tx, ty);
+                    path.lineTo(tx1, ty);
+                    path.lineTo(tx1, ty1);
+                    path.lineTo(tx, ty1);
+                    path.closePath();
+                }
+            }
+        }
+        return true;
+    }
+
+    // marks the tiles overlapped by a box of given corner and size
+    private void mark(int x, int y, int size) {
+        int c0 = Math.max(0, Math.floorDiv(x, TILE));
+        int c1 = Math.min(columns - 1, Math.floorDiv(x + size - 1, TILE));
+        int r0 = Math.max(0, Math.floorDiv(y, TILE));
+        int r1 = Math.min(rows - 1, Math.floorDiv(y + size - 1, TILE));
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                if (!dirty[r * columns + c]) {
+                    dirty[r * columns + c] = true;
+                    dirtyCount++;
+                }
+            }
+        }
+    }
+}
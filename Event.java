@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * ************************************************************************
+ * This class encapsulates the details associated with an event during
+ * simulation. Event implicitly can be of seven types based on a and b, a
+ * negative b other than -1 standing for what a runs into if it is not a
+ * particle. We use this strategy to avoid use of an Event type classifying
+ * variable in the class.
+ * <pre>
+ *      - a and b both -1:           redraw event
+ *      - a and b the same particle  a leaves its grid cell or quadtree leaf
+ *      - a particle, b -2:          a reached the end of its prediction window
+ *      - a particle, b -3:          collision with vertical wall
+ *      - a particle, b -4:          collision with horizontal wall
+ *      - a particle, b at most -5:  collision with obstacle -5 - b
+ *      - a and b both particles     binary collision between a and b
+ * </pre >
+ **************************************************************************
+ *
+ * @author Manish Joshi
+ */
+class Event implements Comparable<Event> {
+
+    static final int HORIZON = -2;          // b of the end of a prediction window
+    static final int VERTICAL_WALL = -3;    // b of a collision with a vertical wall
+    static final int HORIZONTAL_WALL = -4;  // b of a collision with a horizontal wall
+
+    public double time;             // time till collision event
+    public int a, b;                // indices of the paricles which shall collide
+    public int countA, countB;      // collision counts at Event creation
+
+    // creates a new event scheduled at given time involving a and b
+    public Event(double time, int a, int b, ParticleStore store) {
+        this.time = time;
+        this.a = a;
+        this.b = b;
+        if (a != -1) {
+            countA = store.count(a);
+        } else {
+            countA = -1;    // sentinel value
+        }
+        if (b >= 0) {
+            countB = store.count(b);
+        } else {
+            countB = -1;
+        }
+    }
+
+    @Override
+    public int compareTo(Event that) {
+        double dt = this.time - that.time;
+        if (dt < 0) {
+            return -1;
+        } else if (dt > 0) {
+            return +1;
+        } else {
+            return 0;
+        }
+    }
+
+    // the b of a collision with the obstacle of the given id
+    static int obstacle(int id) {
+        return -5 - id;
+    }
+
+    // the id of the obstacle of a collision with the given b
+    static int obstacleId(int b) {
+        return -5 - b;
+    }
+
+    // has any intervening event has occured since creation of this event
+    public boolean isValid(ParticleStore store) {
+        if (a != -1 && store.count(a) != countA) {
+            return false;
+        }
+        if (b >= 0 && store.count(b) != countB) {
+            return false;
+        }
+        return true;
+    }
+
+}
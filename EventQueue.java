@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The scheduler of pending events used by the {@code CollisionSystem}. Events
+ * are added as they are predicted and removed in chronological order.
+ * <p>
+ * A queue may either keep every event it is given and leave the stale ones to
+ * be discarded by {@link Event#isValid(ParticleStore)} when they are removed, or
+ * keep only the earliest event of each particle. The latter kind has to be
+ * told through {@link #invalidate(int)} when a particle changes its velocity,
+ * and hands back through {@link #orphan()} the particles which lost their
+ * event because of that change and need to be predicted again.
+ *
+ * @author Manish Joshi
+ */
+interface EventQueue {
+
+    /**
+     * Adds the event at given time involving particles a and b, using the
+     * encoding described in {@link Event}.
+     *
+     * @param time the time of the event
+     * @param a the index of the first particle, -1 if none
+     * @param b the index of the second particle, -1 if none
+     */
+    void add(double time, int a, int b);
+
+    /**
+     * Removes and returns the earliest event.
+     *
+     * @return the earliest event
+     */
+    Event remove();
+
+    /**
+     * Returns true if there are no events left.
+     *
+     * @return true if there are no events left
+     */
+    boolean isEmpty();
+
+    /**
+     * Returns true if the queue only keeps the earliest event of each
+     * particle. A particle whose event has just been removed then has no event
+     * at all and must be predicted afresh.
+     *
+     * @return true if only the earliest event of each particle is kept
+     */
+    boolean earliestOnly();
+
+    /**
+     * Drops the events of particle p, and of every particle whose event
+     * involves p, since the velocity of p has changed.
+     *
+     * @param p the index of the particle
+     */
+    void invalidate(int p);
+
+    /**
+     * Returns the next particle whose event was dropped by
+     * {@link #invalidate(int)} and has to be predicted again, each such
+     * particle is returned once.
+     *
+     * @return the index of the particle, -1 if there are none left
+     */
+    int orphan();
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The {@code FrameListener} interface is implemented by observers of a
+ * {@code CollisionSystem} which want to see the particles at regular intervals
+ * of simulated time, such as a display or a recorder. The simulator schedules
+ * redraw events only while some listener is attached, so a headless simulation
+ * without listeners runs at full speed.
+ *
+ * @author Manish Joshi
+ */
+public interface FrameListener {
+
+    /**
+     * Called on each redraw event with every particle moved to the current
+     * time. The store must not be modified and should not be kept after the
+     * call returns, since the simulation goes on as soon as it does.
+     *
+     * @param time the current time of the simulation
+     * @param store the particles
+     */
+    void frame(double time, ParticleStore store);
+
+    /**
+     * Called as the simulation starts, before its first redraw event. Does
+     * nothing by default.
+     *
+     * @param paced {@code true} if the simulation is paced by a display, or
+     * {@code false} if it runs headless at full speed
+     */
+    default void start(boolean paced) {
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Paces the redraw events of a {@code CollisionSystem} to the wall clock.
+ * Frames are due at a fixed number per second of real time, and simulated
+ * time is meant to pass a given number of times as fast as real time.
+ * <p>
+ * The pacer measures how much simulated time the simulator gets through per
+ * second of real time it is busy, drawing included, and spaces the redraw
+ * events so that they come at the frame rate with simulated time passing as
+ * fast as asked, or as fast as the simulator can manage if that is slower.
+ * When a redraw event comes early the simulator sleeps until the frame is
+ * due. When it comes more than a frame late the frame is dropped, so the
+ * time it would take to draw goes to catching up, and if the simulator falls
+ * too far behind the schedule is reset rather than caught up with.
+ *
+ * @author Manish Joshi
+ */
+class FramePacer {
+
+    private static final double SMOOTHING = 0.2;    // weight of the newest measure of the rate
+    private static final int MAX_LAG = 4;           // frames late after which the schedule is reset
+
+    private final double fps;           // frames per second of real time
+    private final double speed;         // seconds of simulated time per second of real time
+    private final long period;          // nanoseconds between frames
+
+    private boolean started;            // true once the first frame has come
+    private long due;                   // when the next frame is due, in nanoseconds
+    private double rate;                // measured simulated seconds per busy second, 0 if unknown
+    private double lastTime;            // simulated time of the last frame
+    private long lastWall;              // real time of the last frame
+    private long slept;                 // nanoseconds slept since the last frame
+    private long dropped;               // number of frames dropped
+
+    /**
+     * Initializes a pacer for the given frame rate and speed.
+     *
+     * @param fps the number of frames per second of real time
+     * @param speed the number of seconds of simulated time per second of real time
+     */
+    FramePacer(double fps, double speed) {
+        if (!(fps > 0) || !(speed > 0)) {
+            throw new IllegalArgumentException("frame rate and speed must be positive");
+        }
+        this.fps = fps;
+        this.speed = speed;
+        this.period = (long) (1e9 / fps);
+    }
+
+    /**
+     * Waits until the frame of a redraw event is due, and tells whether it
+     * should be drawn or dropped.
+     *
+     * @param time the simulated time of the redraw event
+     * @return {@code true} if the frame should be drawn
+     */
+    boolean frame(double time) {
+        long now = System.nanoTime();
+        if (!started) {
+            started = true;
+            due = now + period;
+            lastTime = time;
+            lastWall = now;
+            return true;
+        }
+
+        long busy = now - lastWall - slept;
+        if (busy > 0 && time > lastTime) {
+            double measured = (time - lastTime) / (busy / 1e9);
+            rate = rate == 0 ? measured : rate + SMOOTHING * (measured - rate);
+        }
+        lastTime = time;
+        lastWall = now;
+        slept = 0;
+
+        boolean draw = true;
+        if (now < due) {
+            slept = due - now;
+            sleep(slept);
+        } else if (now - due > period) {
+            draw = false;
+            dropped++;
+            if (now - due > MAX_LAG * period) {
+                due = now;      // too far behind to catch up
+            }
+        }
+        due += period;
+        return draw;
+    }
+
+    /**
+     * Returns the simulated time until the next redraw event.
+     *
+     * @return the simulated time between frames
+     */
+    double interval() {
+        double effective = rate > 0 ? Math.min(speed, rate) : speed;
+        return effective / fps;
+    }
+
+    /**
+     * Returns the number of frames dropped so far.
+     *
+     * @return the number of frames dropped
+     */
+    long dropped() {
+        return dropped;
+    }
+
+    private static void sleep(long nanos) {
+        try {
+            Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Records the frames of a {@code CollisionSystem} as a numbered sequence of
+ * PNG images, {@code frame-000000.png} onwards, without opening any window.
+ * Add it with {@code addFrameListener} and close it once the simulation is
+ * over. The images are encoded by a pool of background threads, and frames
+ * are skipped rather than slowing the simulation down when they fall behind,
+ * unless the recorder is blocking. Each image is numbered by its redraw event,
+ * so a skipped frame leaves a gap in the numbers.
+ *
+ * @author Manish Joshi
+ */
+public class FrameRecorder extends Recorder {
+
+    private final File directory;           // where the images are written
+
+    /**
+     * Initializes a recorder writing to the given directory with one encoder
+     * thread per available processor.
+     *
+     * @param directory the directory the images are written to
+     * @param width the width of the images in pixels
+     * @param height the height of the images in pixels
+     * @throws IOException if the directory cannot be created
+     */
+    public FrameRecorder(File directory, int width, int height) throws IOException {
+        this(directory, width, height, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Initializes a recorder writing to the given directory.
+     *
+     * @param directory the directory the images are written to
+     * @param width the width of the images in pixels
+     * @param height the height of the images in pixels
+     * @param threads the number of encoder threads
+     * @throws IOException if the directory cannot be created
+     * @throws IllegalArgumentException if a size or the number of threads is
+     * not positive
+     */
+    public FrameRecorder(File directory, int width, int height, int threads) throws IOException {
+        super(width, height, threads);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create " + directory);
+        }
+        this.directory = directory;
+    }
+
+    @Override
+    void write(Snapshot s, Canvas c, int frame, int redraw) throws IOException {
+        ImageIO.write(c.image, "png", new File(directory, String.format("frame-%06d.png", redraw)));
+    }
+}
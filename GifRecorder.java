@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records the frames of a {@code CollisionSystem} as an animated GIF, looping
+ * forever, without opening any window. Add it with {@code addFrameListener}
+ * and close it once the simulation is over.
+ * <p>
+ * The palette is fixed by the first frame: white, and for each particle color
+ * a few shades between white and the color for the antialiased edges. If
+ * there are more colors than fit in 256 entries, the most common ones are
+ * kept and the others drawn in the closest entry. Each frame after the first
+ * is stored as the smallest rectangle containing every pixel that changed,
+ * laid over the frame before it, and a frame without change only makes the
+ * one before it last longer. Frames are drawn and compressed on a background
+ * thread. In a headless run the simulation waits for it when it falls behind,
+ * so every frame is recorded. With a display, or if the recorder is not
+ * blocking, frames are skipped rather than slowing the simulation down, and
+ * the frame shown before them lasts longer instead, so the animation keeps
+ * its pace.
+ *
+ * @author Manish Joshi
+ */
+public class GifRecorder extends Recorder {
+
+    private static final int BUFFERS = 8;   // snapshots waiting to be written
+    private static final int LEVELS = 8;    // most shades per particle color
+    private static final int WHITE = 0xFFFFFF;
+    private static final int MAX_CODE = 4096;   // codes of at most 12 bits
+    private static final int HASH = 8192;   // size of the dictionary, a power of 2
+
+    private final OutputStream out;         // the file
+    private final double fps;               // frames per second of the animation
+
+    // owned by the encoder thread
+    private int[] table;                    // the palette, null until the first frame
+    private int bits;                       // the palette has 2^bits entries
+    private final short[] closest = new short[1 << 18];    // entry closest to each 6-6-6 bit color, -1 if not known
+    private byte[] previous, current;       // entries of the pixels of the last frame written and of this one
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();  // the last frame written
+    private int start = -1;                 // redraw of the pending frame, -1 if none
+
+    // the LZW dictionary as a hash table from prefix and pixel to code
+    private final int[] keys = new int[HASH];
+    private final short[] codes = new short[HASH];
+
+    // bits and bytes of the data sub-block being written
+    private final byte[] block = new byte[255];
+    private int blockSize;
+    private long accumulator;
+    private int accumulated;
+
+    /**
+     * Initializes a recorder writing to the given file.
+     *
+     * @param file the file the animation is written to
+     * @param width the width of the animation in pixels
+     * @param height the height of the animation in pixels
+     * @param fps the frames per second the animation is played at, at most
+     * 50 since the delays are in hundredths of a second
+     * @throws IOException if the file cannot be opened
+     * @throws IllegalArgumentException if a size is not between 1 and 65535
+     * or the frame rate is out of range
+     */
+    public GifRecorder(File file, int width, int height, double fps) throws IOException {
+        super(width, height, 1, BUFFERS);
+        if (width > 0xFFFF || height > 0xFFFF) {
+            throw new IllegalArgumentException("image size must be at most 65535");
+        }
+        if (!(fps > 0 && fps <= 50)) {
+            throw new IllegalArgumentException("frame rate must be in (0, 50]");
+        }
+        this.fps = fps;
+        this.out = new BufferedOutputStream(new FileOutputStream(file));
+        Arrays.fill(closest, (short) -1);
+    }
+
+    @Override
+    void write(Snapshot s, Canvas c, int frame, int redraw) throws IOException {
+        if (table == null) {
+            palette(s);
+            header();
+            previous = new byte[width * height];
+            current = new byte[width * height];
+        }
+        for (int i = 0; i < c.pixels.length; i++) {
+            current[i] = (byte) closest(c.pixels[i] & WHITE);
+        }
+
+        // find the rectangle of the pixels which changed
+        int x0 = 0, y0 = 0, x1 = width - 1, y1 = height - 1;
+        if (start >= 0) {
+            while (y0 < height && same(y0)) {
+                y0++;
+            }
+            if (y0 == height) {
+                return;     // the frame before lasts longer
+            }
+            while (same(y1)) {
+                y1--;
+            }
+            x0 = width;
+            x1 = -1;
+            for (int y = y0; y <= y1; y++) {
+                int row = y * width;
+                for (int x = 0; x < x0; x++) {
+                    if (current[row + x] != previous[row + x]) {
+                        x0 = x;
+                        break;
+                    }
+                }
+                for (int x = width - 1; x > x1; x--) {
+                    if (current[row + x] != previous[row + x]) {
+                        x1 = x;
+                        break;
+                    }
+                }
+            }
+        }
+        flush(redraw);
+        image(x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+        start = redraw;
+
+        byte[] swap = previous;
+        previous = current;
+        current = swap;
+    }
+
+    // true if row y is the same in both frames
+    private boolean same(int y) {
+        int row = y * width;
+        for (int x = 0; x < width; x++) {
+            if (current[row + x] != previous[row + x]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    void finish(int redraws) throws IOException {
+        try {
+            if (table == null) {
+                palette(new Snapshot());    // no frame recorded, write an empty animation
+                header();
+            }
+            flush(redraws);
+            out.write(0x3B);                // trailer
+        } finally {
+            out.close();
+        }
+    }
+
+    // builds the palette from the colors of the particles in the snapshot
+    private void palette(Snapshot s) {
+        Map<Integer, Integer> count = new HashMap<>();
+        for (int i = 0; i < s.n; i++) {
+            count.merge(Palette.rgb(s.color[i]) & WHITE, 1, Integer::sum);
+        }
+        count.remove(WHITE);
+        Integer[] colors = count.keySet().toArray(new Integer[0]);
+        Arrays.sort(colors, (a, b) -> count.get(b) - count.get(a));
+
+        int k = Math.min(colors.length, 255);
+        int levels = k == 0 ? 0 : Math.max(1, Math.min(LEVELS, 255 / k));
+        int size = 1 + k * levels;
+        bits = 1;
+        while (1 << bits < size) {
+            bits++;
+        }
+        table = new int[1 << bits];
+        table[0] = WHITE;
+        for (int i = 0; i < k; i++) {
+            for (int j = 1; j <= levels; j++) {
+                table[1 + i * levels + j - 1] = blend(colors[i], j, levels);
+            }
+        }
+        for (int i = size; i < table.length; i++) {
+            table[i] = WHITE;
+        }
+    }
+
+    // the color j/levels of the way from white to rgb
+    private static int blend(int rgb, int j, int levels) {
+        int blend = 0;
+        for (int shift = 0; shift < 24; shift += 8) {
+            int c = rgb >> shift & 0xFF;
+            blend |= (255 + (c - 255) * j / levels) << shift;
+        }
+        return blend;
+    }
+
+    // the entry of the palette closest to the color, computed once for each 6-6-6 bit color
+    private int closest(int rgb) {
+        int key = (rgb >> 18 & 0x3F) << 12 | (rgb >> 10 & 0x3F) << 6 | (rgb >> 2 & 0x3F);
+        if (closest[key] < 0) {
+            int r = (key >> 12) << 2 | 2, g = (key >> 6 & 0x3F) << 2 | 2, b = (key & 0x3F) << 2 | 2;
+            int best = 0, min = Integer.MAX_VALUE;
+            for (int i = 0; i < table.length; i++) {
+                int dr = r - (table[i] >> 16 & 0xFF);
+                int dg = g - (table[i] >> 8 & 0xFF);
+                int db = b - (table[i] & 0xFF);
+                int d = dr * dr + dg * dg + db * db;
+                if (d < min) {
+                    best = i;
+                    min = d;
+                }
+            }
+            closest[key] = (short) best;
+        }
+        return closest[key];
+    }
+
+    // writes the header, the palette and the extension making the animation loop
+    private void header() throws IOException {
+        out.write("GIF89a".getBytes("US-ASCII"));
+        short16(out, width);
+        short16(out, height);
+        out.write(0x80 | (bits - 1) << 4 | (bits - 1));     // global palette
+        out.write(0);                                       // background
+        out.write(0);                                       // square pixels
+        for (int rgb : table) {
+            out.write(rgb >> 16);
+            out.write(rgb >> 8);
+            out.write(rgb);
+        }
+        out.write(new byte[] {0x21, (byte) 0xFF, 11});
+        out.write("NETSCAPE2.0".getBytes("US-ASCII"));
+        out.write(new byte[] {3, 1, 0, 0, 0});              // loop forever
+    }
+
+    // writes the pending frame, shown until the given redraw
+    private void flush(int end) throws IOException {
+        if (start < 0) {
+            return;
+        }
+        // round the times the frames start at rather than the delays, so
+        // the errors do not add up
+        long delay = Math.round(end * 100 / fps) - Math.round(start * 100 / fps);
+        out.write(new byte[] {0x21, (byte) 0xF9, 4, 1 << 2});   // keep the frame below
+        short16(out, (int) Math.max(1, Math.min(0xFFFF, delay)));
+        out.write(new byte[] {0, 0});
+        pending.writeTo(out);
+        pending.reset();
+        start = -1;
+    }
+
+    // compresses the given rectangle of the current frame into the pending frame
+    private void image(int x, int y, int w, int h) throws IOException {
+        pending.write(0x2C);
+        short16(pending, x);
+        short16(pending, y);
+        short16(pending, w);
+        short16(pending, h);
+        pending.write(0);
+
+        int min = Math.max(2, bits);
+        int clear = 1 << min;
+        pending.write(min);
+        Arrays.fill(keys, -1);
+        int next = clear + 2, size = min + 1;
+        emit(clear, size);
+
+        int prefix = current[y * width + x] & 0xFF;
+        for (int row = y; row < y + h; row++) {
+            for (int col = row == y ? x + 1 : x; col < x + w; col++) {
+                int pixel = current[row * width + col] & 0xFF;
+                int key = prefix << 8 | pixel;
+                int i = (key * 0x9E3779B1) >>> 19;
+                while (keys[i] != -1 && keys[i] != key) {
+                    i = (i + 1) & (HASH - 1);
+                }
+                if (keys[i] == key) {
+                    prefix = codes[i];
+                    continue;
+                }
+                emit(prefix, size);
+                if (next < MAX_CODE) {
+                    keys[i] = key;
+                    codes[i] = (short) next++;
+                    if (next > 1 << size && size < 12) {
+                        size++;
+                    }
+                } else {
+                    // the dictionary is full, start a new one
+                    emit(clear, size);
+                    Arrays.fill(keys, -1);
+                    next = clear + 2;
+                    size = min + 1;
+                }
+                prefix = pixel;
+            }
+        }
+        emit(prefix, size);
+        emit(clear + 1, size);          // end of the data
+        if (accumulated > 0) {
+            put((int) accumulator);
+            accumulator = 0;
+            accumulated = 0;
+        }
+        if (blockSize > 0) {
+            pending.write(blockSize);
+            pending.write(block, 0, blockSize);
+            blockSize = 0;
+        }
+        pending.write(0);
+    }
+
+    // appends a code of the given number of bits, least significant bits first
+    private void emit(int code, int size) {
+        accumulator |= (long) code << accumulated;
+        accumulated += size;
+        while (accumulated >= 8) {
+            put((int) accumulator);
+            accumulator >>>= 8;
+            accumulated -= 8;
+        }
+    }
+
+    // appends a byte to the sub-block, writing it out when full
+    private void put(int b) {
+        block[blockSize++] = (byte) b;
+        if (blockSize == block.length) {
+            pending.write(blockSize);
+            pending.write(block, 0, blockSize);
+            blockSize = 0;
+        }
+    }
+
+    private static void short16(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >> 8);
+    }
+}
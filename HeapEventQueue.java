@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * The default event queue, a binary heap which keeps every predicted event.
+ * Events which became stale are left in the heap and are discarded by the
+ * simulator when they are removed.
+ * <p>
+ * To keep the dead events from growing the heap without bound, the queue
+ * estimates how many of its events are stale from the number of pending
+ * events of each particle at the time the particle changes. Once the stale
+ * events outnumber the valid ones the heap is compacted, the survivors are
+ * filtered in one pass and heapified again.
+ *
+ * @author Manish Joshi
+ */
+class HeapEventQueue implements EventQueue {
+
+    private static final double STALE_RATIO = 1.0;  // stale to valid ratio above which the heap is compacted
+    private static final int MIN_SIZE = 1024;       // smallest heap worth compacting
+
+    private PriorityQueue<Event> pq = new PriorityQueue<>();    // the event priority queue
+    private final ParticleStore store;                          // the particles of the events
+
+    private final int[] pending;    // number of events involving each particle since its last change
+    private long stale;             // estimated number of stale events in the heap
+
+    private int compactions;        // number of compactions so far
+    private long dropped;           // number of stale events dropped by compactions
+    private long compactionTime;    // time spent compacting in nanoseconds
+
+    /**
+     * Initializes an empty queue for events among the given particles.
+     *
+     * @param store the particles
+     */
+    HeapEventQueue(ParticleStore store) {
+        this.store = store;
+        this.pending = new int[store.size()];
+    }
+
+    @Override
+    public void add(double time, int a, int b) {
+        Event e = new Event(time, a, b, store);
+        pq.add(e);
+        count(e, +1);
+    }
+
+    @Override
+    public Event remove() {
+        Event e = pq.remove();
+        if (e.isValid(store)) {
+            count(e, -1);
+        } else if (stale > 0) {
+            stale--;
+        }
+        return e;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return pq.isEmpty();
+    }
+
+    @Override
+    public boolean earliestOnly() {
+        return false;
+    }
+
+    @Override
+    public void invalidate(int p) {
+        // every pending event of p is stale now, an event involving two
+        // changed particles is counted twice which only makes compaction eager
+        stale += pending[p];
+        pending[p] = 0;
+        long valid = pq.size() - stale;
+        if (pq.size() >= MIN_SIZE && stale > STALE_RATIO * valid) {
+            compact();
+        }
+    }
+
+    @Override
+    public int orphan() {
+        return -1;
+    }
+
+    /**
+     * Returns the number of times the heap was compacted.
+     *
+     * @return the number of compactions
+     */
+    int compactions() {
+        return compactions;
+    }
+
+    /**
+     * Returns the number of stale events dropped by compactions.
+     *
+     * @return the number of dropped events
+     */
+    long dropped() {
+        return dropped;
+    }
+
+    /**
+     * Returns the time spent compacting the heap in nanoseconds.
+     *
+     * @return the time spent compacting
+     */
+    long compactionTime() {
+        return compactionTime;
+    }
+
+    // rebuilds the heap from its valid events, and counts the pending events afresh
+    private void compact() {
+        long start = System.nanoTime();
+        ArrayList<Event> valid = new ArrayList<>(pq.size());
+        Arrays.fill(pending, 0);
+        for (Event e : pq) {
+            if (e.isValid(store)) {
+                valid.add(e);
+                count(e, +1);
+            }
+        }
+        dropped += pq.size() - valid.size();
+        pq = new PriorityQueue<>(valid);   // heapifies in linear time
+        stale = 0;
+        compactions++;
+        compactionTime += System.nanoTime() - start;
+    }
+
+    // adds d to the pending events of the particles of e
+    private void count(Event e, int d) {
+        if (e.a >= 0) {
+            pending[e.a] += d;
+        }
+        if (e.b >= 0 && e.b != e.a) {
+            pending[e.b] += d;
+        }
+    }
+}
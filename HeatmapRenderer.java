@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Draws the density of the particles instead of the particles themselves.
+ * Each particle is counted in the pixel holding its center, in a single pass
+ * over the snapshot, and each pixel is then colored through a lookup table by
+ * the number of particles in it or by their mean kinetic energy. No disc is
+ * rasterized, so the cost is linear in the number of particles plus the
+ * number of pixels, which suits systems with many more particles than pixels
+ * where the discs would blur into each other anyway.
+ *
+ * @author Manish Joshi
+ */
+class HeatmapRenderer implements Renderer {
+
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int LEVELS = 256;      // number of colors in the table
+    private static final double SCALE = 4.0;    // multiple of the average reaching the hottest color
+
+    // colors of the table at evenly spaced levels, from cold to hot
+    private static final int[] STOPS = {0xD0E0FF, 0x2060FF, 0xE02020, 0xFFE040};
+
+    private static final int[] TABLE = table();
+
+    private final boolean energy;               // color by mean kinetic energy, or else by count
+    private int[] counts = new int[0];          // number of particles in each pixel
+    private float[] sums = new float[0];        // their total kinetic energy
+
+    /**
+     * Initializes a renderer coloring the pixels by the number of particles
+     * or by their mean kinetic energy.
+     *
+     * @param energy if {@code true} pixels are colored by mean kinetic energy
+     */
+    HeatmapRenderer(boolean energy) {
+        this.energy = energy;
+    }
+
+    @Override
+    public void render(Snapshot s, Canvas canvas) {
+        int width = canvas.width, height = canvas.height;
+        int[] pixels = canvas.pixels;
+        int size = width * height;
+        if (counts.length < size) {
+            counts = new int[size];
+            sums = new float[size];
+        }
+        Arrays.fill(counts, 0, size, 0);
+        Arrays.fill(sums, 0, size, 0f);
+
+        // accumulate the particles per pixel
+        double total = 0.0;
+        for (int i = 0; i < s.n; i++) {
+            int x = (int) Math.floor(canvas.x0 + s.rx[i] * canvas.sx);
+            int y = (int) Math.floor(canvas.y0 + s.ry[i] * canvas.sy);
+            if (x < 0 || x >= width || y < 0 || y >= height) {
+                continue;
+            }
+            int k = y * width + x;
+            counts[k]++;
+            sums[k] += (float) s.energy[i];
+            total += s.energy[i];
+        }
+
+        // scale so that the average over the particles is a quarter of the table
+        double scale = energy
+                ? (LEVELS - 1) / (SCALE * Math.max(total / Math.max(1, s.n), Double.MIN_NORMAL))
+                : (LEVELS - 1) / (SCALE * Math.max(1.0, (double) s.n / size));
+        for (int k = 0; k < size; k++) {
+            int c = counts[k];
+            if (c == 0) {
+                pixels[k] = WHITE;
+            } else {
+                double value = energy ? sums[k] / c : c;
+                int level = (int) Math.min(LEVELS - 1, Math.max(1, value * scale));
+                pixels[k] = TABLE[level];
+            }
+        }
+    }
+
+    // interpolates the colors of the table between the stops
+    private static int[] table() {
+        int[] table = new int[LEVELS];
+        int segments = STOPS.length - 1;
+        for (int level = 0; level < LEVELS; level++) {
+            double t = (double) level / (LEVELS - 1) * segments;
+            int j = Math.min(segments - 1, (int) t);
+            double f = t - j;
+            int from = STOPS[j], to = STOPS[j + 1];
+            int red   = (int) Math.round(((from >> 16) & 0xFF) * (1 - f) + ((to >> 16) & 0xFF) * f);
+            int green = (int) Math.round(((from >> 8) & 0xFF) * (1 - f) + ((to >> 8) & 0xFF) * f);
+            int blue  = (int) Math.round((from & 0xFF) * (1 - f) + (to & 0xFF) * f);
+            table[level] = 0xFF000000 | red << 16 | green << 8 | blue;
+        }
+        return table;
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * A hierarchy of uniform cell lists over the unit box, one level per class of
+ * radius, used as a broad phase by the {@code CollisionSystem} for systems
+ * mixing particles of very different sizes, see {@code SpatialIndex}. A
+ * single cell list has to make its cells as wide as the largest particle, so
+ * small particles crowd into them by the hundred when a few particles are
+ * much larger than the others.
+ * <p>
+ * Here the particles are sorted into classes by radius, each class spanning a
+ * factor of two, and each class gets a level of its own with cells as wide as
+ * its largest particle, so every particle is kept in a cell matching its
+ * size. The cells of a level around the cell of a particle are within its
+ * reach if they are closer to it than the largest radius of the level plus
+ * that of the particle's own level. These are the three by three cells around
+ * it on its own level, a few on coarser levels, and on finer levels the cells
+ * covering its neighbourhood, which hold only the particles it may actually
+ * touch. A particle only crosses the cells of its own level, and then collects
+ * the cells which have just come within its reach on every level.
+ * <p>
+ * In a periodic box the cells of every level wrap around, as in a
+ * {@code CellGrid}, provided every level has at least
+ * {@link #PERIODIC_CELLS} cells along each axis.
+ *
+ * @author Manish Joshi
+ */
+class HierarchicalGrid implements SpatialIndex {
+
+    private static final double INFINITY = Double.POSITIVE_INFINITY;
+    private static final int CLASSES = 31;          // number of classes of radius
+    private static final int PERIODIC_CELLS = 8;    // fewest cells along each axis of every level for a periodic box
+
+    private final ParticleStore store;  // the particles indexed by the grid
+    private final boolean periodic;     // the cells wrap around the edges of the box
+
+    // the levels, from the coarsest to the finest
+    private final int levels;           // number of levels
+    private final int[] m;              // number of cells along each axis of each level
+    private final double[] size;        // width of a cell of each level
+    private final double[] reach;       // largest radius of the particles of each level
+    private final int[] offset;         // index in head of the first cell of each level
+
+    private final int[] head;           // first particle in each cell of every level, -1 if the cell is empty
+    private final int[] next, prev;     // links of the cell lists, -1 at the ends
+    private final int[] level;          // level of each particle, -1 for static particles
+    private final int[] cellX, cellY;   // cell coordinates of each particle on its level
+
+    private int[] buffer = new int[16]; // particles collected by the last query
+    private int found;                  // number of valid entries in buffer
+
+    /**
+     * Builds the grid for the given particles at their current positions.
+     *
+     * @param store the particles
+     */
+    HierarchicalGrid(ParticleStore store) {
+        this.store = store;
+        this.periodic = store.isPeriodic();
+        int n = store.size();
+
+        // the class of a particle is the number of times its diameter fits in
+        // the box, rounded down to a power of two
+        int[] count = new int[CLASSES];
+        double[] maxRadius = new double[CLASSES];
+        int moving = 0;
+        level = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (store.isStatic(i)) {
+                level[i] = -1;
+                continue;
+            }
+            int c = classOf(store.radius(i));
+            level[i] = c;
+            count[c]++;
+            maxRadius[c] = Math.max(maxRadius[c], store.radius(i));
+            moving++;
+        }
+
+        // one level for each class in use, with cells at least one diameter
+        // of its largest particle wide, and no more cells than particles
+        int[] levelOf = new int[CLASSES];
+        int used = 0;
+        for (int c = 0; c < CLASSES; c++) {
+            if (count[c] > 0) {
+                levelOf[c] = used++;
+            }
+        }
+        levels = used;
+        m = new int[levels];
+        size = new double[levels];
+        reach = new double[levels];
+        offset = new int[levels];
+        int cells = 0;
+        for (int c = 0; c < CLASSES; c++) {
+            if (count[c] > 0) {
+                int l = levelOf[c];
+                int fit = maxRadius[c] > 0 ? (int) (1.0 / (2 * maxRadius[c])) : Integer.MAX_VALUE;
+                m[l] = Math.max(1, Math.min(fit, (int) Math.ceil(Math.sqrt(moving))));
+                size[l] = 1.0 / m[l];
+                reach[l] = maxRadius[c];
+                offset[l] = cells;
+                cells += m[l] * m[l];
+            }
+        }
+
+        head = new int[cells];
+        Arrays.fill(head, -1);
+        next = new int[n];
+        prev = new int[n];
+        cellX = new int[n];
+        cellY = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (level[i] != -1) {
+                int l = levelOf[level[i]];
+                level[i] = l;
+                cellX[i] = clamp((int) (store.rx(i) * m[l]), l);
+                cellY[i] = clamp((int) (store.ry(i) * m[l]), l);
+                link(i);
+            }
+        }
+    }
+
+    @Override
+    public double timeToCross(int i) {
+        int l = level[i];
+        return Math.min(timeToCross(store.rx(i), store.vx(i), cellX[i], l),
+                timeToCross(store.ry(i), store.vy(i), cellY[i], l));
+    }
+
+    @Override
+    public int cross(int i) {
+        int l = level[i];
+        double dtX = timeToCross(store.rx(i), store.vx(i), cellX[i], l);
+        double dtY = timeToCross(store.ry(i), store.vy(i), cellY[i], l);
+
+        unlink(i);
+        found = 0;
+        boolean alongX = dtX <= dtY;
+        int d = (alongX ? store.vx(i) : store.vy(i)) > 0 ? +1 : -1;
+        int from = alongX ? cellX[i] : cellY[i];
+        int across = alongX ? cellY[i] : cellX[i];
+        for (int k = 0; k < levels; k++) {
+            // the rows or columns of level k which have just come within reach,
+            // counted before the cell coordinate is wrapped around
+            int a0 = low(from, l, k), a1 = high(from, l, k);
+            int b0 = low(from + d, l, k), b1 = high(from + d, l, k);
+            int lo = d > 0 ? Math.max(a1 + 1, b0) : b0;
+            int hi = d > 0 ? b1 : Math.min(a0 - 1, b1);
+            int c0 = low(across, l, k), c1 = high(across, l, k);
+            for (int u = lo; u <= hi; u++) {
+                for (int v = c0; v <= c1; v++) {
+                    if (alongX) {
+                        collect(k, u, v);
+                    } else {
+                        collect(k, v, u);
+                    }
+                }
+            }
+        }
+        if (alongX) {
+            cellX[i] = wrap(from + d, l);
+        } else {
+            cellY[i] = wrap(from + d, l);
+        }
+        link(i);
+        return found;
+    }
+
+    @Override
+    public int neighbours(int i) {
+        int l = level[i];
+        found = 0;
+        for (int k = 0; k < levels; k++) {
+            int x1 = high(cellX[i], l, k), y1 = high(cellY[i], l, k);
+            for (int x = low(cellX[i], l, k); x <= x1; x++) {
+                for (int y = low(cellY[i], l, k); y <= y1; y++) {
+                    collect(k, x, y);
+                }
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int query(double x0, double y0, double x1, double y1) {
+        found = 0;
+        for (int k = 0; k < levels; k++) {
+            int cx0 = clamp((int) Math.floor((x0 - reach[k]) * m[k]), k);
+            int cx1 = clamp((int) Math.floor((x1 + reach[k]) * m[k]), k);
+            int cy0 = clamp((int) Math.floor((y0 - reach[k]) * m[k]), k);
+            int cy1 = clamp((int) Math.floor((y1 + reach[k]) * m[k]), k);
+            for (int x = cx0; x <= cx1; x++) {
+                for (int y = cy0; y <= cy1; y++) {
+                    collect(k, x, y);
+                }
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int get(int k) {
+        return buffer[k];
+    }
+
+    /**
+     * Returns whether the cells wrap around a periodic box with enough of
+     * them on every level to tell the images of the particles apart.
+     *
+     * @return {@code true} if the grid can be used in a periodic box
+     */
+    @Override
+    public boolean wraps() {
+        if (!periodic) {
+            return false;
+        }
+        for (int k = 0; k < levels; k++) {
+            if (m[k] < PERIODIC_CELLS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the class of the particles of the given radius
+    private static int classOf(double radius) {
+        double fit = radius > 0 ? 1.0 / (2 * radius) : INFINITY;
+        int cells = (int) Math.min(fit, 1 << (CLASSES - 1));
+        return Math.max(0, 31 - Integer.numberOfLeadingZeros(cells));
+    }
+
+    // the first cell along an axis of level k within reach of cell c of level l
+    private int low(int c, int l, int k) {
+        int low = (int) Math.floor((c * size[l] - reach[l] - reach[k]) * m[k]);
+        return periodic ? low : Math.max(0, low);
+    }
+
+    // the last cell along an axis of level k within reach of cell c of level l
+    private int high(int c, int l, int k) {
+        int high = (int) Math.ceil(((c + 1) * size[l] + reach[l] + reach[k]) * m[k]) - 1;
+        return periodic ? high : Math.min(m[k] - 1, high);
+    }
+
+    // time for a coordinate moving with velocity v to leave the cell c of
+    // level l, see CellGrid
+    private double timeToCross(double r, double v, int c, int l) {
+        if (periodic) {
+            r -= Math.rint(r - (c + 0.5) * size[l]);
+        }
+        if (v > 0 && (c < m[l] - 1 || periodic)) {
+            return Math.max(0.0, ((c + 1) * size[l] - r) / v);
+        } else if (v < 0 && (c > 0 || periodic)) {
+            return Math.max(0.0, (c * size[l] - r) / v);
+        } else {
+            return INFINITY;
+        }
+    }
+
+    // appends the particles of cell (x, y) of level k to the buffer, ignores
+    // cells outside the box or wraps them around if it is periodic
+    private void collect(int k, int x, int y) {
+        if (periodic) {
+            x = wrap(x, k);
+            y = wrap(y, k);
+        } else if (x < 0 || x >= m[k] || y < 0 || y >= m[k]) {
+            return;
+        }
+        for (int j = head[offset[k] + x * m[k] + y]; j != -1; j = next[j]) {
+            if (found == buffer.length) {
+                buffer = Arrays.copyOf(buffer, 2 * found);
+            }
+            buffer[found++] = j;
+        }
+    }
+
+    // pushes particle i to the front of the list of its cell
+    private void link(int i) {
+        int l = level[i];
+        int c = offset[l] + cellX[i] * m[l] + cellY[i];
+        prev[i] = -1;
+        next[i] = head[c];
+        if (head[c] != -1) {
+            prev[head[c]] = i;
+        }
+        head[c] = i;
+    }
+
+    // removes particle i from the list of its cell
+    private void unlink(int i) {
+        int l = level[i];
+        if (prev[i] != -1) {
+            next[prev[i]] = next[i];
+        } else {
+            head[offset[l] + cellX[i] * m[l] + cellY[i]] = next[i];
+        }
+        if (next[i] != -1) {
+            prev[next[i]] = prev[i];
+        }
+    }
+
+    // the cell coordinate c of level l brought back into the box
+    private int wrap(int c, int l) {
+        return c < 0 ? c + m[l] : c >= m[l] ? c - m[l] : c;
+    }
+
+    private int clamp(int c, int l) {
+        return Math.max(0, Math.min(m[l] - 1, c));
+    }
+}
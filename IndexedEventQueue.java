@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * An event queue which keeps only the earliest event of each particle in an
+ * indexed binary min-heap, see <a href =
+ * "https://algs4.cs.princeton.edu/24pq/IndexMinPQ.java.html">IndexMinPQ</a>.
+ * Each particle owns one slot of the heap, and one extra slot holds the redraw
+ * event. Adding an event for a particle only replaces its slot if the new
+ * event is earlier, so the heap never holds more than N + 1 events.
+ * <p>
+ * Each slot also remembers the other particle of its event. When a particle
+ * changes its velocity its own slot and the slots of all particles whose
+ * event involves it are emptied right away, so a removed event is never
+ * stale. The particles emptied this way are handed back as orphans to be
+ * predicted again.
+ *
+ * @author Manish Joshi
+ */
+class IndexedEventQueue implements EventQueue {
+
+    private final ParticleStore store;  // the particles of the events
+    private final int n;                // number of particles, slot n holds the redraw event
+
+    private final Event[] events;       // the event in each slot, null if empty
+    private final int[] pq;             // binary heap of slots using 1-based indexing
+    private final int[] qp;             // inverse of pq, qp[pq[i]] = i, -1 if not on the heap
+    private int size;                   // number of slots on the heap
+
+    private final int[] partner;        // the other particle of the event in each slot, -1 if none
+    private final int[] head;           // first slot whose event involves each particle, -1 if none
+    private final int[] next, prev;     // links of those lists, -1 at the ends
+
+    private final int[] orphans;        // particles whose slot was emptied by a change of a partner
+    private int orphanCount;            // number of orphans not yet handed back
+
+    /**
+     * Initializes an empty queue for events among the given particles.
+     *
+     * @param store the particles
+     */
+    IndexedEventQueue(ParticleStore store) {
+        this.store = store;
+        this.n = store.size();
+        events = new Event[n + 1];
+        pq = new int[n + 2];
+        qp = new int[n + 1];
+        partner = new int[n + 1];
+        head = new int[n];
+        next = new int[n + 1];
+        prev = new int[n + 1];
+        orphans = new int[n];
+        Arrays.fill(qp, -1);
+        Arrays.fill(head, -1);
+    }
+
+    @Override
+    public void add(double time, int a, int b) {
+        int slot = a != -1 ? a : (b != -1 ? b : n);
+        if (events[slot] != null && events[slot].time <= time) {
+            return;     // the particle already has an earlier event
+        }
+        Event e = new Event(time, a, b, store);
+        if (events[slot] == null) {
+            events[slot] = e;
+            qp[slot] = ++size;
+            pq[size] = slot;
+        } else {
+            unlink(slot);
+            events[slot] = e;
+        }
+        partner[slot] = (a != -1 && b >= 0 && a != b) ? b : -1;
+        link(slot);
+        swim(qp[slot]);    // the key can only have decreased
+    }
+
+    @Override
+    public Event remove() {
+        int slot = pq[1];
+        Event e = events[slot];
+        delete(slot);
+        return e;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean earliestOnly() {
+        return true;
+    }
+
+    @Override
+    public void invalidate(int p) {
+        if (events[p] != null) {
+            delete(p);
+        }
+        while (head[p] != -1) {
+            int slot = head[p];
+            delete(slot);
+            orphans[orphanCount++] = slot;
+        }
+    }
+
+    @Override
+    public int orphan() {
+        if (orphanCount == 0) {
+            return -1;
+        }
+        return orphans[--orphanCount];
+    }
+
+    // empties the given slot and takes it off the heap
+    private void delete(int slot) {
+        int i = qp[slot];
+        exch(i, size--);
+        if (i <= size) {
+            swim(i);
+            sink(i);
+        }
+        qp[slot] = -1;
+        unlink(slot);
+        events[slot] = null;
+    }
+
+    // adds slot to the list of the partner of its event
+    private void link(int slot) {
+        int p = partner[slot];
+        if (p == -1) {
+            return;
+        }
+        prev[slot] = -1;
+        next[slot] = head[p];
+        if (head[p] != -1) {
+            prev[head[p]] = slot;
+        }
+        head[p] = slot;
+    }
+
+    // removes slot from the list of the partner of its event
+    private void unlink(int slot) {
+        int p = partner[slot];
+        if (p == -1) {
+            return;
+        }
+        if (prev[slot] != -1) {
+            next[prev[slot]] = next[slot];
+        } else {
+            head[p] = next[slot];
+        }
+        if (next[slot] != -1) {
+            prev[next[slot]] = prev[slot];
+        }
+        partner[slot] = -1;
+    }
+
+    /**
+     * ************************************************************************
+     * Heap helper functions.
+     * ************************************************************************
+     */
+    private boolean greater(int i, int j) {
+        return events[pq[i]].time > events[pq[j]].time;
+    }
+
+    private void exch(int i, int j) {
+        int swap = pq[i];
+        pq[i] = pq[j];
+        pq[j] = swap;
+        qp[pq[i]] = i;
+        qp[pq[j]] = j;
+    }
+
+    private void swim(int k) {
+        while (k > 1 && greater(k / 2, k)) {
+            exch(k, k / 2);
+            k = k / 2;
+        }
+    }
+
+    private void sink(int k) {
+        while (2 * k <= size) {
+            int j = 2 * k;
+            if (j < size && greater(j, j + 1)) {
+                j++;
+            }
+            if (!greater(k, j)) {
+                break;
+            }
+            exch(k, j);
+            k = j;
+        }
+    }
+}
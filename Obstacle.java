@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.geom.Path2D;
+
+/**
+ * A fixed obstacle inside the box, such as a channel wall or a membrane, off
+ * which the particles bounce elastically as off the walls of the box. An
+ * obstacle has no thickness, a particle touches it when its center comes
+ * within one radius of it, from either side. The ends of an obstacle are
+ * round, so particles glancing off them are deflected correctly.
+ * <p>
+ * Add obstacles to a {@code CollisionSystem} with {@code addObstacle}, see
+ * {@code Segment} and {@code Arc}.
+ *
+ * @author Manish Joshi
+ */
+public abstract class Obstacle {
+
+    static final double INFINITY = Double.POSITIVE_INFINITY;
+
+    double xmin, ymin, xmax, ymax;  // the bounding box, set by the subclasses
+    double qx, qy;                  // the point found by the last call to closest
+    double nx, ny;                  // the unit normal of the obstacle there, zero if it has none
+
+    // only the obstacles of this package can be simulated
+    Obstacle() {
+    }
+
+    /**
+     * Returns the time until a disc hits this obstacle, assuming no
+     * intervening collision. The disc only hits the side of the obstacle it is
+     * on, and only while moving towards it.
+     *
+     * @param rx <em>x</em> coordinate of the center of the disc
+     * @param ry <em>y</em> coordinate of the center of the disc
+     * @param vx <em>x</em> component of the velocity of the disc
+     * @param vy <em>y</em> component of the velocity of the disc
+     * @param radius the radius of the disc
+     * @return the time until the disc hits this obstacle, infinite if it never
+     * does
+     */
+    abstract double timeToHit(double rx, double ry, double vx, double vy, double radius);
+
+    /**
+     * Finds the point of this obstacle closest to the given point, and stores
+     * it in {@code qx} and {@code qy}, and the unit normal of the obstacle at
+     * that point, on either side, in {@code nx} and {@code ny}.
+     *
+     * @param x <em>x</em> coordinate of the point
+     * @param y <em>y</em> coordinate of the point
+     */
+    abstract void closest(double x, double y);
+
+    /**
+     * Appends the outline of this obstacle on the canvas to the path. Drawing
+     * through a path keeps the shape classes of AWT from being loaded when
+     * nothing is drawn.
+     *
+     * @param path the path to append to
+     * @param c the canvas
+     */
+    abstract void trace(Path2D path, Canvas c);
+
+    /**
+     * Updates the velocity of particle i upon collision with this obstacle.
+     * Assumes the particle touches the obstacle at this moment. A particle
+     * whose center is on the obstacle, such as one too small to be drawn,
+     * bounces off the obstacle there, or straight back off a segment of no
+     * length.
+     *
+     * @param store the particles
+     * @param i the index of the particle
+     */
+    void bounce(ParticleStore store, int i) {
+        double rx = store.rx(i), ry = store.ry(i);
+        closest(rx, ry);
+        // the normal of the surface at the point of contact
+        double dx = rx - qx, dy = ry - qy;
+        double length = Math.sqrt(dx * dx + dy * dy);
+        if (length > 0) {
+            store.bounceOffObstacle(i, dx / length, dy / length);
+        } else if (nx != 0 || ny != 0) {
+            store.bounceOffObstacle(i, nx, ny);
+        } else {
+            double speed = Math.sqrt(store.vx(i) * store.vx(i) + store.vy(i) * store.vy(i));
+            store.bounceOffObstacle(i, store.vx(i) / speed, store.vy(i) / speed);
+        }
+    }
+
+    /**
+     * Returns the time until a disc hits the given point, assuming no
+     * intervening collision, see {@link #timeToHit}.
+     *
+     * @param x <em>x</em> coordinate of the point
+     * @param y <em>y</em> coordinate of the point
+     * @param rx <em>x</em> coordinate of the center of the disc
+     * @param ry <em>y</em> coordinate of the center of the disc
+     * @param vx <em>x</em> component of the velocity of the disc
+     * @param vy <em>y</em> component of the velocity of the disc
+     * @param radius the radius of the disc
+     * @return the time until the disc hits the point
+     */
+    static double timeToHit(double x, double y, double rx, double ry, double vx, double vy, double radius) {
+        double dx = rx - x, dy = ry - y;
+        double dvdr = vx * dx + vy * dy;
+        if (dvdr >= 0) {
+            return INFINITY;    // moving away from the point
+        }
+        double dvdv = vx * vx + vy * vy;
+        double discriminant = dvdr * dvdr - dvdv * (dx * dx + dy * dy - radius * radius);
+        if (discriminant < 0) {
+            return INFINITY;
+        }
+        return Math.max(0.0, -(dvdr + Math.sqrt(discriminant)) / dvdv);
+    }
+
+    // grows the bounding box to contain the given point
+    void include(double x, double y) {
+        xmin = Math.min(xmin, x);
+        ymin = Math.min(ymin, y);
+        xmax = Math.max(xmax, x);
+        ymax = Math.max(ymax, y);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.util.List;
+
+/**
+ * Draws the obstacles of the simulation over the particles drawn by another
+ * renderer, as black lines two pixels wide. The lines are antialiased, so
+ * they are only drawn over the parts of the canvas the other renderer
+ * repainted; drawn twice over the same pixels their edges would darken.
+ *
+ * @author Manish Joshi
+ */
+class ObstacleRenderer implements Renderer {
+
+    private final Renderer renderer;        // draws the particles
+    private final List<Obstacle> obstacles; // the obstacles, may change between frames
+    private final Path2D.Double path = new Path2D.Double();
+    private final Path2D.Double clip = new Path2D.Double();    // the parts of the canvas repainted
+    private int drawn;                      // number of obstacles drawn on the last frame
+
+    /**
+     * Initializes a renderer drawing the given obstacles over the frames of
+     * the given renderer.
+     *
+     * @param renderer the renderer drawing the particles
+     * @param obstacles the obstacles, safe to read while the simulator adds
+     * to them
+     */
+    ObstacleRenderer(Renderer renderer, List<Obstacle> obstacles) {
+        this.renderer = renderer;
+        this.obstacles = obstacles;
+    }
+
+    @Override
+    public void render(Snapshot s, Canvas c) {
+        if (obstacles.size() != drawn) {
+            renderer.reset();   // the new obstacles must be drawn everywhere
+            drawn = obstacles.size();
+        }
+        renderer.render(s, c);
+        if (obstacles.isEmpty()) {
+            return;
+        }
+        clip.reset();
+        boolean clipped = renderer.repainted(clip);
+        if (clipped && clip.getCurrentPoint() == null) {
+            return;     // nothing was repainted
+        }
+        path.reset();
+        for (Obstacle o : obstacles) {
+            o.trace(path, c);
+        }
+        Graphics2D g = c.image.createGraphics();
+        if (clipped) {
+            g.clip(clip);
+        }
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(Color.BLACK);
+        g.setStroke(new BasicStroke(2f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g.draw(path);
+        g.dispose();
+    }
+
+    @Override
+    public void reset() {
+        renderer.reset();
+    }
+
+    @Override
+    public boolean repainted(Path2D path) {
+        return renderer.repainted(path);
+    }
+}
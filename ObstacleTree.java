@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A bounding volume hierarchy over the obstacles of a simulation, used by the
+ * {@code CollisionSystem} to find the first obstacle a particle hits. The
+ * obstacles never move, so the tree is built once per simulation, top down,
+ * splitting the obstacles of each node at the median of their centers along
+ * the longer side of the node's box. Boxes are grown by the largest radius of
+ * the moving particles, so a particle can only touch an obstacle if its center
+ * enters the obstacle's box.
+ * <p>
+ * A particle's path is traced through the tree nearest node first, and nodes
+ * the path enters only after the best hit found so far are skipped, so a
+ * prediction only tests the few obstacles close to the path.
+ *
+ * @author Manish Joshi
+ */
+class ObstacleTree {
+
+    private static final double INFINITY = Double.POSITIVE_INFINITY;
+    private static final int LEAF = 2;  // largest number of obstacles in a leaf
+
+    private final Obstacle[] list;      // the obstacles in the order they were added
+    private final Obstacle[] obstacles; // the same, those of each node in a contiguous range
+    private final int[] ids;            // the index in the list of each obstacle
+
+    // the nodes, node 0 is the root and the children of an inner node are
+    // next to each other
+    private int nodes;
+    private double[] xmin, ymin, xmax, ymax;    // the grown boxes
+    private int[] first;                // first child of an inner node, first obstacle of a leaf
+    private int[] count;                // number of obstacles of a leaf, 0 for an inner node
+
+    private int[] stack = new int[32];  // nodes left to visit by the current cast
+    private double time;                // time until the hit found by the last cast
+
+    /**
+     * Builds the tree over the given obstacles.
+     *
+     * @param list the obstacles
+     * @param reach the largest radius of the moving particles
+     */
+    ObstacleTree(List<Obstacle> list, double reach) {
+        int n = list.size();
+        this.list = list.toArray(new Obstacle[n]);
+        obstacles = this.list.clone();
+        ids = new int[n];
+        for (int k = 0; k < n; k++) {
+            ids[k] = k;
+        }
+        int capacity = Math.max(1, 2 * n);
+        xmin = new double[capacity];
+        ymin = new double[capacity];
+        xmax = new double[capacity];
+        ymax = new double[capacity];
+        first = new int[capacity];
+        count = new int[capacity];
+        nodes = 1;
+        build(0, 0, n, reach);
+    }
+
+    /**
+     * Returns the obstacle of the given index, the position it was added at.
+     *
+     * @param id the index of the obstacle
+     * @return the obstacle
+     */
+    Obstacle obstacle(int id) {
+        return list[id];
+    }
+
+    /**
+     * Finds the first obstacle particle {@code i} hits within the given time,
+     * assuming no intervening collision. The time until the hit is then given
+     * by {@link #time()}.
+     *
+     * @param store the particles
+     * @param i the index of the particle
+     * @param limit the time to look ahead
+     * @return the index of the obstacle hit, or -1 if none is hit in time
+     */
+    int cast(ParticleStore store, int i, double limit) {
+        double rx = store.rx(i), ry = store.ry(i);
+        double vx = store.vx(i), vy = store.vy(i);
+        double radius = store.radius(i);
+
+        int hit = -1;
+        double best = limit;
+        int top = 0;
+        if (obstacles.length > 0 && enter(0, rx, ry, vx, vy, best) <= best) {
+            stack[top++] = 0;
+        }
+        while (top > 0) {
+            int node = stack[--top];
+            if (count[node] > 0) {
+                for (int k = first[node]; k < first[node] + count[node]; k++) {
+                    double dt = obstacles[k].timeToHit(rx, ry, vx, vy, radius);
+                    if (dt <= best && dt < INFINITY) {
+                        best = dt;
+                        hit = ids[k];
+                    }
+                }
+                continue;
+            }
+            // visit the nearer child first, pushing it last
+            int a = first[node], b = a + 1;
+            double ta = enter(a, rx, ry, vx, vy, best);
+            double tb = enter(b, rx, ry, vx, vy, best);
+            if (ta > tb) {
+                int swap = a;
+                a = b;
+                b = swap;
+                double t = ta;
+                ta = tb;
+                tb = t;
+            }
+            if (top + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, 2 * stack.length);
+            }
+            if (tb <= best) {
+                stack[top++] = b;
+            }
+            if (ta <= best) {
+                stack[top++] = a;
+            }
+        }
+        time = best;
+        return hit;
+    }
+
+    /**
+     * Returns the time until the hit found by the last {@link #cast}.
+     *
+     * @return the time until the hit
+     */
+    double time() {
+        return time;
+    }
+
+    // builds the node for obstacles lo to hi - 1 and its subtree
+    private void build(int node, int lo, int hi, double reach) {
+        double x0 = INFINITY, y0 = INFINITY, x1 = -INFINITY, y1 = -INFINITY;
+        for (int k = lo; k < hi; k++) {
+            x0 = Math.min(x0, obstacles[k].xmin);
+            y0 = Math.min(y0, obstacles[k].ymin);
+            x1 = Math.max(x1, obstacles[k].xmax);
+            y1 = Math.max(y1, obstacles[k].ymax);
+        }
+        xmin[node] = x0 - reach;
+        ymin[node] = y0 - reach;
+        xmax[node] = x1 + reach;
+        ymax[node] = y1 + reach;
+        if (hi - lo <= LEAF) {
+            first[node] = lo;
+            count[node] = hi - lo;
+            return;
+        }
+        select(lo, hi, (lo + hi) >>> 1, x1 - x0 >= y1 - y0);
+        int child = nodes;
+        nodes += 2;
+        first[node] = child;
+        count[node] = 0;
+        build(child, lo, (lo + hi) >>> 1, reach);
+        build(child + 1, (lo + hi) >>> 1, hi, reach);
+    }
+
+    // partially sorts obstacles lo to hi - 1 by the x or y coordinate of their
+    // centers so the one at position k is in its sorted place
+    private void select(int lo, int hi, int k, boolean alongX) {
+        hi--;
+        while (lo < hi) {
+            double pivot = center(lo + hi >>> 1, alongX);
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (center(i, alongX) < pivot) {
+                    i++;
+                }
+                while (center(j, alongX) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private double center(int k, boolean alongX) {
+        Obstacle o = obstacles[k];
+        return alongX ? o.xmin + o.xmax : o.ymin + o.ymax;
+    }
+
+    private void swap(int i, int j) {
+        Obstacle o = obstacles[i];
+        obstacles[i] = obstacles[j];
+        obstacles[j] = o;
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+    }
+
+    // time at which a point moving from (rx, ry) with velocity (vx, vy) enters
+    // the box of the node, infinite if it misses it within the limit
+    private double enter(int node, double rx, double ry, double vx, double vy, double limit) {
+        double t0 = 0.0, t1 = limit;
+        if (vx != 0) {
+            double a = (xmin[node] - rx) / vx, b = (xmax[node] - rx) / vx;
+            t0 = Math.max(t0, Math.min(a, b));
+            t1 = Math.min(t1, Math.max(a, b));
+        } else if (rx < xmin[node] || rx > xmax[node]) {
+            return INFINITY;
+        }
+        if (vy != 0) {
+            double a = (ymin[node] - ry) / vy, b = (ymax[node] - ry) / vy;
+            t0 = Math.max(t0, Math.min(a, b));
+            t1 = Math.min(t1, Math.max(a, b));
+        } else if (ry < ymin[node] || ry > ymax[node]) {
+            return INFINITY;
+        }
+        return t0 <= t1 ? t0 : INFINITY;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A {@code PrimitiveEventQueue} which keeps its records, heap and free list
+ * in native memory instead of arrays on the Java heap. Together with an
+ * {@code OffHeapParticleStore} the events and the particles leave the Java
+ * heap, so the work of the garbage collector no longer grows with them. A
+ * few primitive arrays of one entry per particle do stay on the Java heap:
+ * the colors of the store take 2 bytes per particle, the list of moving
+ * particles and their prediction windows in the simulator 12 bytes, and the
+ * links of a broad phase, if one is used, 20 to 36 bytes. They are allocated
+ * once per simulation, hold no references and are never traced by the
+ * collector, but they do count against the maximum heap size.
+ * <p>
+ * Each record takes 24 bytes, the time followed by the two particles and
+ * their two collision counts, and the heap and the free list take another 4
+ * bytes each. The records, the heap and the free list are each split into
+ * chunks of {@link #CHUNK} slots, one direct buffer per chunk, so the queue
+ * is not limited by the two gigabytes a single buffer can address and grows
+ * by allocating new chunks without copying the old ones. Direct buffers count
+ * against {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap
+ * size, so large systems with a small heap have to raise it.
+ *
+ * @author Manish Joshi
+ */
+class OffHeapEventQueue extends PrimitiveEventQueue {
+
+    private static final int RECORD = 24;                       // bytes per record
+    private static final int SHIFT = 16;                        // log2 of the slots per chunk
+    private static final int CHUNK = 1 << SHIFT;                // slots per chunk
+    private static final int MASK = CHUNK - 1;                  // slot within its chunk
+    private static final int MAX_CHUNKS = Integer.MAX_VALUE >>> SHIFT; // chunks addressable by an int slot
+
+    private ByteBuffer[] records = new ByteBuffer[0];   // the records of the events, by chunk of slots
+    private ByteBuffer[] heap = new ByteBuffer[0];      // the slots ordered as a heap, by chunk
+    private ByteBuffer[] free = new ByteBuffer[0];      // stack of unused slots, by chunk
+    private int chunks;                                 // number of chunks allocated
+
+    /**
+     * Initializes an empty queue for events among the given particles.
+     *
+     * @param store the particles
+     */
+    OffHeapEventQueue(ParticleStore store) {
+        super(store, false);
+        long slots = initialCapacity(store);
+        addChunks((int) Math.min(MAX_CHUNKS, (slots + MASK) >>> SHIFT));
+    }
+
+    // allocates a buffer of given size in native memory
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+
+    // appends k chunks to the records, the heap and the free list
+    private void addChunks(int k) {
+        int n = chunks + k;
+        records = Arrays.copyOf(records, n);
+        heap = Arrays.copyOf(heap, n);
+        free = Arrays.copyOf(free, n);
+        for (int c = chunks; c < n; c++) {
+            records[c] = allocate(RECORD * CHUNK);
+            heap[c] = allocate(4 * CHUNK);
+            free[c] = allocate(4 * CHUNK);
+        }
+        chunks = n;
+    }
+
+    @Override
+    int capacity() {
+        return chunks << SHIFT;
+    }
+
+    @Override
+    void grow() {
+        if (chunks == MAX_CHUNKS) {
+            throw new IllegalStateException("event queue full at " + capacity() + " events");
+        }
+        addChunks(Math.min(chunks, MAX_CHUNKS - chunks));
+    }
+
+    @Override
+    void set(int slot, double time, int a, int b, int countA, int countB) {
+        ByteBuffer chunk = records[slot >>> SHIFT];
+        int offset = RECORD * (slot & MASK);
+        chunk.putDouble(offset, time);
+        chunk.putInt(offset + 8, a);
+        chunk.putInt(offset + 12, b);
+        chunk.putInt(offset + 16, countA);
+        chunk.putInt(offset + 20, countB);
+    }
+
+    @Override
+    double time(int slot) {
+        return records[slot >>> SHIFT].getDouble(RECORD * (slot & MASK));
+    }
+
+    @Override
+    int a(int slot) {
+        return records[slot >>> SHIFT].getInt(RECORD * (slot & MASK) + 8);
+    }
+
+    @Override
+    int b(int slot) {
+        return records[slot >>> SHIFT].getInt(RECORD * (slot & MASK) + 12);
+    }
+
+    @Override
+    int countA(int slot) {
+        return records[slot >>> SHIFT].getInt(RECORD * (slot & MASK) + 16);
+    }
+
+    @Override
+    int countB(int slot) {
+        return records[slot >>> SHIFT].getInt(RECORD * (slot & MASK) + 20);
+    }
+
+    @Override
+    int heap(int k) {
+        return heap[k >>> SHIFT].getInt(4 * (k & MASK));
+    }
+
+    @Override
+    void setHeap(int k, int slot) {
+        heap[k >>> SHIFT].putInt(4 * (k & MASK), slot);
+    }
+
+    @Override
+    int free(int k) {
+        return free[k >>> SHIFT].getInt(4 * (k & MASK));
+    }
+
+    @Override
+    void setFree(int k, int slot) {
+        free[k >>> SHIFT].putInt(4 * (k & MASK), slot);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@code ParticleStore} which keeps the fields of its particles outside of
+ * the Java heap, either in native memory or in a memory-mapped file. Tens of
+ * millions of particles then neither count against the maximum heap size nor
+ * add to the work of the garbage collector, so its pauses stay flat as the
+ * system grows.
+ * <p>
+ * Each field lives in its own {@code java.nio} buffer in native byte order.
+ * A mapped store is backed by one region of the file per field, and a store
+ * mapped again from the same file finds the particles as they were left,
+ * except for their colors which stay on the heap.
+ *
+ * @author Manish Joshi
+ */
+public class OffHeapParticleStore extends ParticleStore {
+
+    private static final int FIELDS = 7;    // number of double fields of a particle
+
+    private final DoubleBuffer rx, ry;      // positions
+    private final DoubleBuffer vx, vy;      // velocities
+    private final DoubleBuffer radius;      // radii
+    private final DoubleBuffer mass;        // masses
+    private final DoubleBuffer time;        // times at which the positions were last updated
+    private final IntBuffer count;          // number of collisions of each particle till now
+
+    /**
+     * Initializes a store for n particles in native memory, all at the origin
+     * and at rest.
+     *
+     * @param n the number of particles
+     */
+    public OffHeapParticleStore(int n) {
+        this(n, allocate(8L * n, FIELDS), ByteBuffer.allocateDirect(4 * n));
+    }
+
+    // wraps the given buffers, one per double field and one for the counts
+    private OffHeapParticleStore(int n, ByteBuffer[] fields, ByteBuffer count) {
+        super(n, false);
+        this.rx = fields[0].order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        this.ry = fields[1].order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        this.vx = fields[2].order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        this.vy = fields[3].order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        this.radius = fields[4].order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        this.mass = fields[5].order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        this.time = fields[6].order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        this.count = count.order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * Returns a store for n particles kept in the given file, which is created
+     * if needed and mapped into memory. The operating system pages the
+     * particles in and out of memory as the simulation touches them.
+     *
+     * @param filename the name of the file
+     * @param n the number of particles
+     * @return the store
+     * @throws IllegalArgumentException if the file can not be mapped
+     */
+    public static OffHeapParticleStore mapped(String filename, int n) {
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+            FileChannel channel = file.getChannel();
+            // the mappings stay valid after the channel is closed
+            ByteBuffer[] fields = new ByteBuffer[FIELDS];
+            for (int k = 0; k < FIELDS; k++) {
+                fields[k] = channel.map(FileChannel.MapMode.READ_WRITE, 8L * n * k, 8L * n);
+            }
+            ByteBuffer count = channel.map(FileChannel.MapMode.READ_WRITE, 8L * n * FIELDS, 4L * n);
+            return new OffHeapParticleStore(n, fields, count);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not map file " + filename, e);
+        }
+    }
+
+    // allocates k buffers of given size in native memory
+    private static ByteBuffer[] allocate(long size, int k) {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many particles for one buffer per field");
+        }
+        ByteBuffer[] buffers = new ByteBuffer[k];
+        for (int j = 0; j < k; j++) {
+            buffers[j] = ByteBuffer.allocateDirect((int) size);
+        }
+        return buffers;
+    }
+
+    @Override
+    public double rx(int i) {
+        return rx.get(i);
+    }
+
+    @Override
+    public double ry(int i) {
+        return ry.get(i);
+    }
+
+    @Override
+    public double vx(int i) {
+        return vx.get(i);
+    }
+
+    @Override
+    public double vy(int i) {
+        return vy.get(i);
+    }
+
+    @Override
+    public double radius(int i) {
+        return radius.get(i);
+    }
+
+    @Override
+    public double mass(int i) {
+        return mass.get(i);
+    }
+
+    @Override
+    public double time(int i) {
+        return time.get(i);
+    }
+
+    @Override
+    public int count(int i) {
+        return count.get(i);
+    }
+
+    @Override
+    protected void setPosition(int i, double rx, double ry) {
+        this.rx.put(i, rx);
+        this.ry.put(i, ry);
+    }
+
+    @Override
+    protected void setVelocity(int i, double vx, double vy) {
+        this.vx.put(i, vx);
+        this.vy.put(i, vy);
+    }
+
+    @Override
+    protected void setRadius(int i, double radius) {
+        this.radius.put(i, radius);
+    }
+
+    @Override
+    protected void setMass(int i, double mass) {
+        this.mass.put(i, mass);
+    }
+
+    @Override
+    protected void setTime(int i, double time) {
+        this.time.put(i, time);
+    }
+
+    @Override
+    protected void setCount(int i, int count) {
+        this.count.put(i, count);
+    }
+}
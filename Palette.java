@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The table of the colors of all the particles. Each distinct color is stored
+ * once as a packed RGB value, and particles only keep its index in the table,
+ * two bytes each instead of a reference to a {@code java.awt.Color}. The AWT
+ * {@code Color} of an entry is only created when it is first drawn, so the
+ * simulator never loads AWT unless it draws.
+ * <p>
+ * The table of AWT colors is replaced by a copy whenever a color is created,
+ * and both tables are published through volatile references, so renderers
+ * read the colors of every particle without taking a lock.
+ * <p>
+ * The table is shared by all the particles and stores and only grows. Entry
+ * {@link #BLACK} is black.
+ *
+ * @author Manish Joshi
+ */
+final class Palette {
+
+    static final int BLACK = 0;                         // index of black
+    private static final int CAPACITY = 1 << 16;        // most colors, the indices fit in a char
+
+    private static final HashMap<Integer, Integer> indices = new HashMap<>();   // index of each color
+    private static volatile int[] table = new int[16];  // the colors as packed RGB values
+    private static volatile Color[] colors;             // the AWT colors, null until one is drawn
+    private static int size;                            // number of colors in the table
+
+    static {
+        index(0x000000);
+    }
+
+    private Palette() { }
+
+    /**
+     * Returns the index of the given color, adding it to the table if it is
+     * not in it yet. The alpha component is ignored.
+     *
+     * @param rgb the color as a packed RGB value
+     * @return the index of the color
+     * @throws IllegalStateException if the table is full
+     */
+    static synchronized int index(int rgb) {
+        rgb |= 0xFF000000;
+        Integer index = indices.get(rgb);
+        if (index != null) {
+            return index;
+        }
+        if (size == CAPACITY) {
+            throw new IllegalStateException("more than " + CAPACITY + " distinct colors");
+        }
+        int[] t = table;
+        if (size == t.length) {
+            t = Arrays.copyOf(t, 2 * size);
+        }
+        t[size] = rgb;
+        table = t;
+        indices.put(rgb, size);
+        return size++;
+    }
+
+    /**
+     * Returns the color of the given index as a packed RGB value.
+     *
+     * @param index the index of the color
+     * @return the color as a packed RGB value
+     */
+    static int rgb(int index) {
+        return table[index];
+    }
+
+    /**
+     * Returns the color of the given index.
+     *
+     * @param index the index of the color
+     * @return the color
+     */
+    static Color color(int index) {
+        Color[] c = colors;
+        if (c != null && index < c.length && c[index] != null) {
+            return c[index];
+        }
+        return create(index);
+    }
+
+    // creates the AWT color of the given index on its first use
+    private static synchronized Color create(int index) {
+        Color[] c = colors;
+        if (c != null && index < c.length && c[index] != null) {
+            return c[index];    // created by another thread meanwhile
+        }
+        c = c == null ? new Color[table.length] : Arrays.copyOf(c, Math.max(c.length, table.length));
+        c[index] = new Color(table[index]);
+        colors = c;
+        return c[index];
+    }
+}
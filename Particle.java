@@ -24,22 +24,27 @@ import java.awt.Color;
  * given position, velocity, radius, and mass. Methods are provided for moving
  * the particle and simulating elastic collisions with vertical walls,
  * horizontal walls, and other particles.
+ * <p>
+ * A particle of infinite mass is static: it never moves, and other particles
+ * bounce off it as off a wall. Static particles can be lined up to build walls
+ * and obstacles inside the box.
  *
  * @author manishjoshi394
  */
 public class Particle {
 
     private static final double INFINITY = Double.POSITIVE_INFINITY;
-    private static Color defaultColor = Color.BLACK;
+    private static int defaultColor = Palette.BLACK;
     private static boolean useRadiusUpscaling = false;
 
     private double rx, ry;                  // position
     private double vx, vy;                  // velocity
+    private double time;                    // time at which the position was last updated
     private final double radius;            // radius of particle 
     private final double mass;              // mass of the particle
 
     private int count;                      // number of collisions the particle has been through till now
-    private Color color;                    // the color of this particle
+    private char color;                     // the color of this particle, as an index into the palette
 
     /**
      * Initializes a particle with random position and velocity.
@@ -53,7 +58,7 @@ public class Particle {
         this.vy = StdRandom.uniform(-0.5, 0.5);
         this.radius = 0.01;
         this.mass = 0.5;
-        this.color = defaultColor;
+        this.color = (char) defaultColor;
     }
 
     /**
@@ -68,12 +73,31 @@ public class Particle {
      * @param color the color
      */
     public Particle(double rx, double ry, double vx, double vy, double radius, double mass, Color color) {
+        this(rx, ry, vx, vy, radius, mass, color.getRGB());
+    }
+
+    /**
+     * Initializes a Particle with given specified parameters, with its color
+     * given as a packed RGB value. This does not load any AWT class.
+     *
+     * @param rx <em>x</em> coordinate of the position
+     * @param ry <em>y</em> coordinate of the position
+     * @param vx <em>x</em> component of the velocity
+     * @param vy <em>y</em> component of the velocity
+     * @param radius the radius
+     * @param mass the mass, {@code Double.POSITIVE_INFINITY} for a static
+     * particle, whose velocity is then ignored
+     * @param rgb the color as a packed RGB value
+     */
+    public Particle(double rx, double ry, double vx, double vy, double radius, double mass, int rgb) {
         this.count = 0;
 
         this.rx = rx;
         this.ry = ry;
-        this.vx = vx;
-        this.vy = vy;
+        if (mass != INFINITY) {
+            this.vx = vx;
+            this.vy = vy;
+        }
 
         // 0.03 is used as minimum observable radius onscreen
         if (!radiusUpscalingEnabled() && radius < 0.003) {
@@ -86,14 +110,14 @@ public class Particle {
             this.radius = radius;
         }
         this.mass = mass;
-        this.color = color;
+        this.color = (char) Palette.index(rgb);
     }
 
     /**
      * Draws this particle to the Standard Draw.
      */
     public void draw() {
-        StdDraw.setPenColor(color);
+        StdDraw.setPenColor(color());
         StdDraw.filledCircle(rx, ry, radius);
     }
 
@@ -105,6 +129,123 @@ public class Particle {
     public void move(double dt) {
         rx += vx * dt;
         ry += vy * dt;
+        time += dt;
+    }
+
+    /**
+     * Move this particle on a straight line with its velocity up to the
+     * specified time. This lets a simulator leave the particles which take no
+     * part in an event where they are, and bring each one forward only when
+     * its position is needed.
+     *
+     * @param time the time specified
+     */
+    public void moveTo(double time) {
+        double dt = time - this.time;
+        rx += vx * dt;
+        ry += vy * dt;
+        this.time = time;
+    }
+
+    /**
+     * Returns the time at which the position of this particle was last
+     * updated.
+     *
+     * @return the time of the position of this particle
+     */
+    public double time() {
+        return time;
+    }
+
+    /**
+     * Returns the <em>x</em> coordinate of the position of this particle.
+     *
+     * @return the <em>x</em> coordinate of the position
+     */
+    public double rx() {
+        return rx;
+    }
+
+    /**
+     * Returns the <em>y</em> coordinate of the position of this particle.
+     *
+     * @return the <em>y</em> coordinate of the position
+     */
+    public double ry() {
+        return ry;
+    }
+
+    /**
+     * Returns the <em>x</em> component of the velocity of this particle.
+     *
+     * @return the <em>x</em> component of the velocity
+     */
+    public double vx() {
+        return vx;
+    }
+
+    /**
+     * Returns the <em>y</em> component of the velocity of this particle.
+     *
+     * @return the <em>y</em> component of the velocity
+     */
+    public double vy() {
+        return vy;
+    }
+
+    /**
+     * Returns the radius of this particle.
+     *
+     * @return the radius of this particle
+     */
+    public double radius() {
+        return radius;
+    }
+
+    /**
+     * Returns the mass of this particle.
+     *
+     * @return the mass of this particle
+     */
+    public double mass() {
+        return mass;
+    }
+
+    /**
+     * Returns true if this particle is static, that is of infinite mass.
+     *
+     * @return {@code true} if this particle never moves
+     */
+    public boolean isStatic() {
+        return mass == INFINITY;
+    }
+
+    /**
+     * Returns the color of this particle.
+     *
+     * @return the color of this particle
+     */
+    public Color color() {
+        return Palette.color(color);
+    }
+
+    /**
+     * Returns the color of this particle as a packed RGB value.
+     *
+     * @return the color of this particle as a packed RGB value
+     */
+    public int rgb() {
+        return Palette.rgb(color);
+    }
+
+    // takes over the state simulated by a ParticleStore
+    void update(double rx, double ry, double vx, double vy, double time, int count) {
+        this.rx = rx;
+        this.ry = ry;
+        this.vx = vx;
+        this.vy = vy;
+        this.time = time;
+        this.count = count;
     }
 
     /**
@@ -223,22 +364,34 @@ public class Particle {
         // sum of the radii of this and that particle
         double sigma = this.radius + that.radius;
 
-        // total magnitude of impulse exchanged on collision
-        double j = 2 * dvdr * this.mass * that.mass / ((this.mass + that.mass) * sigma);
+        // total magnitude of impulse exchanged on collision, a static
+        // particle reflects the other one as a wall would
+        double j;
+        if (this.isStatic()) {
+            j = 2 * dvdr * that.mass / sigma;
+        } else if (that.isStatic()) {
+            j = 2 * dvdr * this.mass / sigma;
+        } else {
+            j = 2 * dvdr * this.mass * that.mass / ((this.mass + that.mass) * sigma);
+        }
 
         // x and y components of the Impulse 
         double jx = j * dx / sigma;
         double jy = j * dy / sigma;
 
-        // update velocity according to momentum change given by impulse
-        this.vx += jx / this.mass;
-        this.vy += jy / this.mass;
-        that.vx -= jx / that.mass;
-        that.vy -= jy / that.mass;
-
-        // update collision counts
-        this.count++;
-        that.count++;
+        // update velocity according to momentum change given by impulse, the
+        // count of a static particle is left alone so that the events of
+        // other particles with it stay valid
+        if (!this.isStatic()) {
+            this.vx += jx / this.mass;
+            this.vy += jy / this.mass;
+            this.count++;
+        }
+        if (!that.isStatic()) {
+            that.vx -= jx / that.mass;
+            that.vy -= jy / that.mass;
+            that.count++;
+        }
     }
 
     /**
@@ -267,6 +420,9 @@ public class Particle {
      * @return the kinetic energy of this particle
      */
     public double kineticEnergy() {
+        if (isStatic()) {
+            return 0.0;
+        }
         // elementary formula 1/2 * m * v * v 
         return (mass * (vx * vx + vy * vy)) / 2;
     }
@@ -278,7 +434,7 @@ public class Particle {
      * @param newColor the new default color for random particles
      */
     public void setDefaultColor(Color newColor) {
-        Particle.defaultColor = newColor;
+        Particle.defaultColor = Palette.index(newColor.getRGB());
     }
 
     /**
@@ -0,0 +1,670 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import dependencies.*;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Scanner;
+
+/**
+ * The {@code ParticleStore} class holds the state of a whole system of
+ * particles in parallel arrays indexed by particle, one array per field of
+ * {@code Particle}. Walking the arrays touches only the fields in use and
+ * avoids a pointer and an object header per particle, which matters for
+ * large systems. The {@code CollisionSystem} simulates on a store.
+ * <p>
+ * The methods mirror those of {@code Particle} but take the index of the
+ * particle instead. A store can be filled from an array of {@code Particle}
+ * and written back to it, or read directly from a sample data file.
+ * <p>
+ * A particle of infinite mass is static, see {@link #isStatic(int)}.
+ * <p>
+ * The box is bounded by reflecting walls, or is periodic if set so with
+ * {@link #setPeriodic(boolean)}, see there.
+ * <p>
+ * Colors are kept as indices into the shared table of packed RGB values of
+ * {@code Palette}, so a store can be filled, simulated and read back without
+ * loading any AWT class, which lets the simulator run on machines without a
+ * display.
+ * <p>
+ * The physics only reaches the fields through the accessors and the protected
+ * setters, which subclasses may override to keep the fields somewhere else
+ * than in arrays on the Java heap, see {@code OffHeapParticleStore}.
+ *
+ * @author Manish Joshi
+ */
+public class ParticleStore {
+
+    private static final double INFINITY = Double.POSITIVE_INFINITY;
+
+    private final int n;                    // number of particles
+    private final char[] color;             // colors as indices into the palette
+
+    // the fields of the default store, null if a subclass keeps them elsewhere
+    private final double[] rx, ry;          // positions
+    private final double[] vx, vy;          // velocities
+    private final double[] radius;          // radii
+    private final double[] mass;            // masses
+    private final double[] time;            // times at which the positions were last updated
+    private final int[] count;              // number of collisions of each particle till now
+
+    private boolean periodic;               // the box wraps around instead of having walls
+
+    /**
+     * Initializes a store for n particles, all at the origin and at rest.
+     * Use {@link #set} to give them their state.
+     *
+     * @param n the number of particles
+     */
+    public ParticleStore(int n) {
+        this(n, true);
+    }
+
+    /**
+     * Initializes a store for n particles, allocating the arrays of the fields
+     * only if asked to. Subclasses keeping the fields elsewhere pass
+     * {@code false} and override every accessor and setter.
+     *
+     * @param n the number of particles
+     * @param arrays if {@code true} the fields are kept in arrays
+     */
+    protected ParticleStore(int n, boolean arrays) {
+        this.n = n;
+        this.color = new char[n];
+        Arrays.fill(color, (char) Palette.BLACK);
+        if (arrays) {
+            rx = new double[n];
+            ry = new double[n];
+            vx = new double[n];
+            vy = new double[n];
+            radius = new double[n];
+            mass = new double[n];
+            time = new double[n];
+            count = new int[n];
+        } else {
+            rx = ry = vx = vy = radius = mass = time = null;
+            count = null;
+        }
+    }
+
+    /**
+     * Initializes a store holding the state of the given particles.
+     *
+     * @param particles the array of particles
+     */
+    public ParticleStore(Particle[] particles) {
+        this(particles.length);
+        for (int i = 0; i < n; i++) {
+            Particle p = particles[i];
+            set(i, p.rx(), p.ry(), p.vx(), p.vy(), p.radius(), p.mass(), p.rgb());
+            setTime(i, p.time());
+            setCount(i, p.count());
+        }
+    }
+
+    /**
+     * Reads a system of particles in the format of the sample data files: the
+     * number of particles followed by a line per particle giving its position,
+     * velocity, radius, mass and the red, green and blue components of its
+     * color.
+     *
+     * @param in the input to read from
+     * @return a store holding the particles read
+     */
+    public static ParticleStore read(Scanner in) {
+        int n = in.nextInt();
+        ParticleStore store = new ParticleStore(n);
+        for (int i = 0; i < n; i++) {
+            double rx     = in.nextDouble();
+            double ry     = in.nextDouble();
+            double vx     = in.nextDouble();
+            double vy     = in.nextDouble();
+            double radius = in.nextDouble();
+            double mass   = in.nextDouble();
+            int r         = in.nextInt();
+            int g         = in.nextInt();
+            int b         = in.nextInt();
+            store.set(i, rx, ry, vx, vy, radius, mass, r << 16 | g << 8 | b);
+        }
+        return store;
+    }
+
+    /**
+     * Sets the state of particle i.
+     *
+     * @param i the index of the particle
+     * @param rx <em>x</em> coordinate of the position
+     * @param ry <em>y</em> coordinate of the position
+     * @param vx <em>x</em> component of the velocity
+     * @param vy <em>y</em> component of the velocity
+     * @param radius the radius
+     * @param mass the mass
+     * @param color the color
+     */
+    public void set(int i, double rx, double ry, double vx, double vy, double radius, double mass, Color color) {
+        set(i, rx, ry, vx, vy, radius, mass, color.getRGB());
+    }
+
+    /**
+     * Sets the state of particle i, with its color given as a packed RGB
+     * value.
+     *
+     * @param i the index of the particle
+     * @param rx <em>x</em> coordinate of the position
+     * @param ry <em>y</em> coordinate of the position
+     * @param vx <em>x</em> component of the velocity
+     * @param vy <em>y</em> component of the velocity
+     * @param radius the radius
+     * @param mass the mass, {@code Double.POSITIVE_INFINITY} for a static
+     * particle, whose velocity is then ignored
+     * @param rgb the color as a packed RGB value
+     */
+    public void set(int i, double rx, double ry, double vx, double vy, double radius, double mass, int rgb) {
+        setPosition(i, rx, ry);
+        if (mass == INFINITY) {
+            setVelocity(i, 0.0, 0.0);
+        } else {
+            setVelocity(i, vx, vy);
+        }
+        setRadius(i, radius);
+        setMass(i, mass);
+        this.color[i] = (char) Palette.index(rgb);
+    }
+
+    /**
+     * Writes the positions, velocities, clocks and collision counts back to
+     * the given particles, which must be the ones the store was filled from.
+     *
+     * @param particles the array of particles
+     */
+    public void copyTo(Particle[] particles) {
+        for (int i = 0; i < n; i++) {
+            particles[i].update(rx(i), ry(i), vx(i), vy(i), time(i), count(i));
+        }
+    }
+
+    /**
+     * Returns the number of particles in the store.
+     *
+     * @return the number of particles
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Returns the <em>x</em> coordinate of the position of particle i.
+     *
+     * @param i the index of the particle
+     * @return the <em>x</em> coordinate of the position
+     */
+    public double rx(int i) {
+        return rx[i];
+    }
+
+    /**
+     * Returns the <em>y</em> coordinate of the position of particle i.
+     *
+     * @param i the index of the particle
+     * @return the <em>y</em> coordinate of the position
+     */
+    public double ry(int i) {
+        return ry[i];
+    }
+
+    /**
+     * Returns the <em>x</em> component of the velocity of particle i.
+     *
+     * @param i the index of the particle
+     * @return the <em>x</em> component of the velocity
+     */
+    public double vx(int i) {
+        return vx[i];
+    }
+
+    /**
+     * Returns the <em>y</em> component of the velocity of particle i.
+     *
+     * @param i the index of the particle
+     * @return the <em>y</em> component of the velocity
+     */
+    public double vy(int i) {
+        return vy[i];
+    }
+
+    /**
+     * Returns the radius of particle i.
+     *
+     * @param i the index of the particle
+     * @return the radius
+     */
+    public double radius(int i) {
+        return radius[i];
+    }
+
+    /**
+     * Returns the mass of particle i.
+     *
+     * @param i the index of the particle
+     * @return the mass
+     */
+    public double mass(int i) {
+        return mass[i];
+    }
+
+    /**
+     * Returns true if particle i is static, that is of infinite mass. A static
+     * particle never moves and other particles bounce off it as off a wall,
+     * so lines of them can build walls inside the box. The simulator does not
+     * predict events for static particles and keeps them out of its cell
+     * list, see {@code StaticGrid}.
+     *
+     * @param i the index of the particle
+     * @return {@code true} if particle i never moves
+     */
+    public boolean isStatic(int i) {
+        return mass(i) == INFINITY;
+    }
+
+    /**
+     * Returns the color of particle i.
+     *
+     * @param i the index of the particle
+     * @return the color
+     */
+    public Color color(int i) {
+        return Palette.color(color[i]);
+    }
+
+    /**
+     * Returns the color of particle i as a packed RGB value.
+     *
+     * @param i the index of the particle
+     * @return the color as a packed RGB value
+     */
+    public int rgb(int i) {
+        return Palette.rgb(color[i]);
+    }
+
+    // returns the index of the color of particle i in the palette
+    int paletteIndex(int i) {
+        return color[i];
+    }
+
+    /**
+     * Returns the time at which the position of particle i was last updated.
+     *
+     * @param i the index of the particle
+     * @return the time of the position
+     */
+    public double time(int i) {
+        return time[i];
+    }
+
+    /**
+     * Returns the total number of collisions involving particle i.
+     *
+     * @param i the index of the particle
+     * @return the total number of collisions
+     */
+    public int count(int i) {
+        return count[i];
+    }
+
+    /**
+     * Sets the position of particle i.
+     *
+     * @param i the index of the particle
+     * @param rx <em>x</em> coordinate of the position
+     * @param ry <em>y</em> coordinate of the position
+     */
+    protected void setPosition(int i, double rx, double ry) {
+        this.rx[i] = rx;
+        this.ry[i] = ry;
+    }
+
+    /**
+     * Sets the velocity of particle i.
+     *
+     * @param i the index of the particle
+     * @param vx <em>x</em> component of the velocity
+     * @param vy <em>y</em> component of the velocity
+     */
+    protected void setVelocity(int i, double vx, double vy) {
+        this.vx[i] = vx;
+        this.vy[i] = vy;
+    }
+
+    /**
+     * Sets the radius of particle i.
+     *
+     * @param i the index of the particle
+     * @param radius the radius
+     */
+    protected void setRadius(int i, double radius) {
+        this.radius[i] = radius;
+    }
+
+    /**
+     * Sets the mass of particle i.
+     *
+     * @param i the index of the particle
+     * @param mass the mass
+     */
+    protected void setMass(int i, double mass) {
+        this.mass[i] = mass;
+    }
+
+    /**
+     * Sets the time at which the position of particle i was last updated.
+     *
+     * @param i the index of the particle
+     * @param time the time of the position
+     */
+    protected void setTime(int i, double time) {
+        this.time[i] = time;
+    }
+
+    /**
+     * Sets the total number of collisions involving particle i.
+     *
+     * @param i the index of the particle
+     * @param count the total number of collisions
+     */
+    protected void setCount(int i, int count) {
+        this.count[i] = count;
+    }
+
+    /**
+     * Makes the box periodic, or bounded by walls again. In a periodic box a
+     * particle reaching a wall comes back in through the opposite one, and
+     * the particles see each other across the walls: the distance between
+     * two particles is measured to the nearest image of the other one among
+     * the copies of the box tiling the plane. The wall methods then move a
+     * particle across the walls instead of bouncing it off them.
+     * <p>
+     * The sum of the radii of any two particles must be less than half the
+     * width of the box, so that two particles can only touch through one
+     * image.
+     *
+     * @param periodic if {@code true} the box is periodic, otherwise it is
+     * bounded by reflecting walls
+     */
+    public void setPeriodic(boolean periodic) {
+        this.periodic = periodic;
+    }
+
+    /**
+     * Returns whether the box is periodic, see {@link #setPeriodic(boolean)}.
+     *
+     * @return {@code true} if the box is periodic
+     */
+    public boolean isPeriodic() {
+        return periodic;
+    }
+
+    /**
+     * Draws particle i to the Standard Draw.
+     *
+     * @param i the index of the particle
+     */
+    public void draw(int i) {
+        StdDraw.setPenColor(color(i));
+        StdDraw.filledCircle(rx(i), ry(i), radius(i));
+    }
+
+    /**
+     * Moves particle i on a straight line with its velocity for the specified
+     * time.
+     *
+     * @param i the index of the particle
+     * @param dt the time specified
+     */
+    public void move(int i, double dt) {
+        setPosition(i, rx(i) + vx(i) * dt, ry(i) + vy(i) * dt);
+        setTime(i, time(i) + dt);
+    }
+
+    /**
+     * Moves particle i on a straight line with its velocity up to the
+     * specified time.
+     *
+     * @param i the index of the particle
+     * @param time the time specified
+     */
+    public void moveTo(int i, double time) {
+        double dt = time - time(i);
+        setPosition(i, rx(i) + vx(i) * dt, ry(i) + vy(i) * dt);
+        setTime(i, time);
+    }
+
+    /**
+     * Returns the time required by particle i to collide with particle j, see
+     * {@link Particle#timeToHit(Particle)}.
+     *
+     * @param i the index of one particle
+     * @param j the index of the other particle
+     * @return the time required for collision between the two particles
+     */
+    public double timeToHit(int i, int j) {
+        if (i == j) {
+            return INFINITY;
+        }
+        double dx = image(rx(j) - rx(i));
+        double dy = image(ry(j) - ry(i));
+        double dvx = vx(j) - vx(i);
+        double dvy = vy(j) - vy(i);
+        double dvdr = dvx * dx + dvy * dy;
+        if (dvdr > 0) {
+            return INFINITY;
+        }
+        double dvdv = dvx * dvx + dvy * dvy;
+        if (dvdv == 0) {
+            return INFINITY;
+        }
+        double drdr = dx * dx + dy * dy;
+        double sigma = radius(i) + radius(j);
+        double discriminant = dvdr * dvdr - dvdv * (drdr - sigma * sigma);
+        if (drdr < sigma * sigma) {
+            System.out.println("Particles overlap !!! UNEXPECTED behaviour expected :p");
+        }
+        if (discriminant < 0) {
+            return INFINITY;
+        }
+        return -(dvdr + Math.sqrt(discriminant)) / dvdv;
+    }
+
+    /**
+     * Returns the time for which the nearest image of particle j, as seen
+     * from particle i, stays the only image of j which i can hit, assuming no
+     * intervening collision. In a periodic box a collision predicted with
+     * {@link #timeToHit(int, int)} is only certain to be the first one of the
+     * two particles if it comes within this time, after which they have to be
+     * predicted again.
+     *
+     * @param i the index of one particle
+     * @param j the index of the other particle
+     * @return the time for which the nearest image of j is the only one i
+     * can hit, infinite if the box is not periodic
+     */
+    public double imageLifetime(int i, int j) {
+        if (!periodic) {
+            return INFINITY;
+        }
+        // another image is at least half a box away along one axis, and the
+        // two particles touch once their centers are a sum of radii apart
+        double dv = Math.max(Math.abs(vx(j) - vx(i)), Math.abs(vy(j) - vy(i)));
+        return dv > 0 ? (0.5 - radius(i) - radius(j)) / dv : INFINITY;
+    }
+
+    /**
+     * Returns the time until particle i hits a Horizontal wall assuming no
+     * Intervening collision. In a periodic box it is the time until the
+     * center of particle i reaches the wall, to cross it.
+     *
+     * @param i the index of the particle
+     * @return the time until particle i hits a Horizontal wall
+     */
+    public double timeToHitHorizontalWall(int i) {
+        double vy = vy(i);
+        if (vy < 0) {
+            return periodic ? Math.max(0.0, -ry(i) / vy) : (radius(i) - ry(i)) / vy;
+        } else if (vy > 0) {
+            return periodic ? Math.max(0.0, (1.0 - ry(i)) / vy) : (1.0 - ry(i) - radius(i)) / vy;
+        } else {
+            return INFINITY;
+        }
+    }
+
+    /**
+     * Returns the time until particle i hits a Vertical wall assuming no
+     * Intervening collision. In a periodic box it is the time until the
+     * center of particle i reaches the wall, to cross it.
+     *
+     * @param i the index of the particle
+     * @return the time until particle i hits a Vertical wall
+     */
+    public double timeToHitVerticalWall(int i) {
+        double vx = vx(i);
+        if (vx < 0) {
+            return periodic ? Math.max(0.0, -rx(i) / vx) : (radius(i) - rx(i)) / vx;
+        } else if (vx > 0) {
+            return periodic ? Math.max(0.0, (1.0 - rx(i)) / vx) : (1.0 - rx(i) - radius(i)) / vx;
+        } else {
+            return INFINITY;
+        }
+    }
+
+    /**
+     * Updates the velocities of particles i and j according to the laws of
+     * elastic collision, see {@link Particle#bounceOff(Particle)}. Assumes the
+     * particles collide at this moment. A static particle is left as it is,
+     * including its collision count.
+     *
+     * @param i the index of one particle
+     * @param j the index of the other particle
+     */
+    public void bounceOff(int i, int j) {
+        double dx = image(rx(j) - rx(i));
+        double dy = image(ry(j) - ry(i));
+        double dvx = vx(j) - vx(i);
+        double dvy = vy(j) - vy(i);
+        double dvdr = dvx * dx + dvy * dy;
+        double sigma = radius(i) + radius(j);
+        double mi = mass(i), mj = mass(j);
+
+        // a static particle reflects the other one as a wall would
+        double magnitude;
+        if (mi == INFINITY) {
+            magnitude = 2 * dvdr * mj / sigma;
+        } else if (mj == INFINITY) {
+            magnitude = 2 * dvdr * mi / sigma;
+        } else {
+            magnitude = 2 * dvdr * mi * mj / ((mi + mj) * sigma);
+        }
+        double jx = magnitude * dx / sigma;
+        double jy = magnitude * dy / sigma;
+
+        if (mi != INFINITY) {
+            setVelocity(i, vx(i) + jx / mi, vy(i) + jy / mi);
+            setCount(i, count(i) + 1);
+        }
+        if (mj != INFINITY) {
+            setVelocity(j, vx(j) - jx / mj, vy(j) - jy / mj);
+            setCount(j, count(j) + 1);
+        }
+    }
+
+    /**
+     * Updates the velocity of particle i upon collision with a Vertical wall.
+     *
+     * @param i the index of the particle
+     */
+    public void bounceOffVerticalWall(int i) {
+        setVelocity(i, -vx(i), vy(i));
+        setCount(i, count(i) + 1);
+    }
+
+    /**
+     * Updates the velocity of particle i upon collision with a Horizontal
+     * wall.
+     *
+     * @param i the index of the particle
+     */
+    public void bounceOffHorizontalWall(int i) {
+        setVelocity(i, vx(i), -vy(i));
+        setCount(i, count(i) + 1);
+    }
+
+    /**
+     * Moves particle i, whose center is at a Vertical wall of a periodic box,
+     * to the opposite wall. The velocity is unchanged but the collision count
+     * is incremented, since the events predicted for the particle before are
+     * now stale.
+     *
+     * @param i the index of the particle
+     */
+    public void crossVerticalWall(int i) {
+        setPosition(i, vx(i) > 0 ? rx(i) - 1.0 : rx(i) + 1.0, ry(i));
+        setCount(i, count(i) + 1);
+    }
+
+    /**
+     * Moves particle i, whose center is at a Horizontal wall of a periodic
+     * box, to the opposite wall, see {@link #crossVerticalWall(int)}.
+     *
+     * @param i the index of the particle
+     */
+    public void crossHorizontalWall(int i) {
+        setPosition(i, rx(i), vy(i) > 0 ? ry(i) - 1.0 : ry(i) + 1.0);
+        setCount(i, count(i) + 1);
+    }
+
+    /**
+     * Updates the velocity of particle i upon collision with an obstacle,
+     * reflecting it across the surface of the obstacle.
+     *
+     * @param i the index of the particle
+     * @param nx <em>x</em> component of the unit normal of the surface
+     * @param ny <em>y</em> component of the unit normal of the surface
+     */
+    public void bounceOffObstacle(int i, double nx, double ny) {
+        double vn = vx(i) * nx + vy(i) * ny;
+        setVelocity(i, vx(i) - 2 * vn * nx, vy(i) - 2 * vn * ny);
+        setCount(i, count(i) + 1);
+    }
+
+    // the nearest image of a displacement along one axis, in a periodic box
+    private double image(double d) {
+        return periodic ? d - Math.rint(d) : d;
+    }
+
+    /**
+     * Returns the kinetic energy of particle i.
+     *
+     * @param i the index of the particle
+     * @return the kinetic energy
+     */
+    public double kineticEnergy(int i) {
+        if (isStatic(i)) {
+            return 0.0;
+        }
+        double vx = vx(i), vy = vy(i);
+        return (mass(i) * (vx * vx + vy * vy)) / 2;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * An event queue which stores its events in parallel primitive arrays
+ * instead of {@code Event} objects, so that once the arrays have grown to
+ * their working size the simulation loop does not allocate at all.
+ * <p>
+ * Each event is a record slot in the arrays, and slots of removed events are
+ * reused through a free list. The slots are ordered by a 4-ary heap, which is
+ * shallower than a binary heap and keeps the children of a node next to each
+ * other in memory. Events added before the first removal, which is the
+ * initial fill of the simulation, are heapified in one bottom-up pass.
+ * <p>
+ * Like the binary heap, the queue keeps every event and leaves the stale ones
+ * to be discarded by the simulator when they are removed. The event returned
+ * by {@link #remove()} is reused by the next call.
+ * <p>
+ * The heap only reaches the arrays through the accessors and setters at the
+ * end of the class, which {@code OffHeapEventQueue} overrides to keep them in
+ * native memory instead.
+ *
+ * @author Manish Joshi
+ */
+class PrimitiveEventQueue implements EventQueue {
+
+    private static final int D = 4;         // number of children of each node of the heap
+
+    private final ParticleStore store;      // the particles of the events
+
+    // the records of the events indexed by slot, null if a subclass keeps them elsewhere
+    private double[] time;
+    private int[] a, b;
+    private int[] countA, countB;
+
+    private int[] heap;                     // the slots ordered as a heap
+    private int[] free;                     // stack of unused slots
+
+    private int size;                       // number of events in the heap
+    private int freeCount;                  // number of unused slots on the stack
+    private int used;                       // number of slots ever used
+    private boolean building = true;        // true until the first event is removed
+
+    private final Event removed;            // holds the last removed event
+
+    /**
+     * Initializes an empty queue for events among the given particles.
+     *
+     * @param store the particles
+     */
+    PrimitiveEventQueue(ParticleStore store) {
+        this(store, true);
+    }
+
+    /**
+     * Initializes an empty queue for events among the given particles,
+     * allocating the arrays only if asked to. Subclasses keeping the arrays
+     * elsewhere pass {@code false} and override every accessor and setter.
+     *
+     * @param store the particles
+     * @param arrays if {@code true} the records are kept in arrays
+     */
+    PrimitiveEventQueue(ParticleStore store, boolean arrays) {
+        this.store = store;
+        if (arrays) {
+            int capacity = initialCapacity(store);
+            time = new double[capacity];
+            a = new int[capacity];
+            b = new int[capacity];
+            countA = new int[capacity];
+            countB = new int[capacity];
+            heap = new int[capacity];
+            free = new int[capacity];
+        }
+        removed = new Event(0, -1, -1, store);
+    }
+
+    @Override
+    public void add(double time, int a, int b) {
+        int slot;
+        if (freeCount > 0) {
+            slot = free(--freeCount);
+        } else {
+            if (used == capacity()) {
+                grow();
+            }
+            slot = used++;
+        }
+        set(slot, time, a, b, a >= 0 ? store.count(a) : -1, b >= 0 ? store.count(b) : -1);
+
+        setHeap(size, slot);
+        if (!building) {
+            swim(size);
+        }
+        size++;
+    }
+
+    @Override
+    public Event remove() {
+        if (building) {
+            heapify();
+            building = false;
+        }
+        int slot = heap(0);
+        setHeap(0, heap(--size));
+        if (size > 0) {
+            sink(0);
+        }
+        setFree(freeCount++, slot);
+
+        removed.time = time(slot);
+        removed.a = a(slot);
+        removed.b = b(slot);
+        removed.countA = countA(slot);
+        removed.countB = countB(slot);
+        return removed;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean earliestOnly() {
+        return false;
+    }
+
+    @Override
+    public void invalidate(int p) {
+        // stale events are recognized by their collision counts
+    }
+
+    @Override
+    public int orphan() {
+        return -1;
+    }
+
+    // a few events per particle to start with
+    static int initialCapacity(ParticleStore store) {
+        return Math.max(16, 8 * store.size());
+    }
+
+    /**
+     * ************************************************************************
+     * Heap helper functions, the children of node i are D*i+1 to D*i+D.
+     * ************************************************************************
+     */
+    private void heapify() {
+        for (int i = (size - 2) / D; i >= 0; i--) {
+            sink(i);
+        }
+    }
+
+    private void swim(int i) {
+        int slot = heap(i);
+        double key = time(slot);
+        while (i > 0) {
+            int parent = (i - 1) / D;
+            if (time(heap(parent)) <= key) {
+                break;
+            }
+            setHeap(i, heap(parent));
+            i = parent;
+        }
+        setHeap(i, slot);
+    }
+
+    private void sink(int i) {
+        int slot = heap(i);
+        double key = time(slot);
+        while (true) {
+            int first = D * i + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + D, size);
+            int min = first;
+            double minKey = time(heap(first));
+            for (int c = first + 1; c < last; c++) {
+                double k = time(heap(c));
+                if (k < minKey) {
+                    min = c;
+                    minKey = k;
+                }
+            }
+            if (minKey >= key) {
+                break;
+            }
+            setHeap(i, heap(min));
+            i = min;
+        }
+        setHeap(i, slot);
+    }
+
+    /**
+     * ************************************************************************
+     * Storage of the records, the heap and the free list.
+     * ************************************************************************
+     */
+    int capacity() {
+        return time.length;
+    }
+
+    // doubles the capacity of all the arrays
+    void grow() {
+        int capacity = 2 * time.length;
+        time = Arrays.copyOf(time, capacity);
+        a = Arrays.copyOf(a, capacity);
+        b = Arrays.copyOf(b, capacity);
+        countA = Arrays.copyOf(countA, capacity);
+        countB = Arrays.copyOf(countB, capacity);
+        heap = Arrays.copyOf(heap, capacity);
+        free = Arrays.copyOf(free, capacity);
+    }
+
+    void set(int slot, double time, int a, int b, int countA, int countB) {
+        this.time[slot] = time;
+        this.a[slot] = a;
+        this.b[slot] = b;
+        this.countA[slot] = countA;
+        this.countB[slot] = countB;
+    }
+
+    double time(int slot) {
+        return time[slot];
+    }
+
+    int a(int slot) {
+        return a[slot];
+    }
+
+    int b(int slot) {
+        return b[slot];
+    }
+
+    int countA(int slot) {
+        return countA[slot];
+    }
+
+    int countB(int slot) {
+        return countB[slot];
+    }
+
+    int heap(int k) {
+        return heap[k];
+    }
+
+    void setHeap(int k, int slot) {
+        heap[k] = slot;
+    }
+
+    int free(int k) {
+        return free[k];
+    }
+
+    void setFree(int k, int slot) {
+        free[k] = slot;
+    }
+}
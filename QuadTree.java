@@ -0,0 +1,501 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * An adaptive quadtree over the unit box used as a broad phase by the
+ * {@code CollisionSystem}, see {@code SpatialIndex}. A uniform grid spends
+ * cells on empty parts of the box and crowds the dense parts into the same
+ * cells, while here a leaf is split into four once it holds more than
+ * {@link #SPLIT} particles, and four sibling leaves are merged back once they
+ * hold fewer than {@link #MERGE} particles between them. Leaves are never
+ * split narrower than the largest particle diameter.
+ * <p>
+ * Each particle has a home, the leaf it was in when it was last predicted,
+ * and leaving its home is its crossing event. Two particles can only touch if
+ * their homes are within the sum of their radii, so a particle is predicted
+ * against the particles whose homes are within its reach. Splits and merges
+ * leave the homes alone, so the events already predicted stay complete: a
+ * particle keeps a home larger or smaller than the leaf it is in until it is
+ * predicted again, and only then moves into the leaf around its center. Each
+ * particle is linked into the list of a node containing its home.
+ * <p>
+ * The tree does not wrap around a periodic box, the simulator checks every
+ * pair then.
+ *
+ * @author Manish Joshi
+ */
+class QuadTree implements SpatialIndex {
+
+    private static final double INFINITY = Double.POSITIVE_INFINITY;
+    private static final int SPLIT = 8;     // particles in a leaf above which it is split
+    private static final int MERGE = 4;     // particles in four sibling leaves and their parent below which they are merged
+
+    private final ParticleStore store;  // the particles indexed by the tree
+    private final double maxRadius;     // largest radius of the moving particles
+    private final double minSize;       // narrowest leaf which may still be split
+
+    // the nodes, the four children of a node are consecutive and ordered
+    // left bottom, right bottom, left top, right top
+    private double[] x0, y0, size;      // lower left corner and width of each node
+    private int[] child;                // first child of each node, -1 for a leaf
+    private int[] parent;               // parent of each node, -1 for the root
+    private int[] head;                 // first particle linked to each node, -1 if none
+    private int[] count;                // number of particles linked to each node
+    private int nodes;                  // number of nodes allocated
+    private int free = -1;              // first of four merged nodes to reuse, chained through child
+
+    private final int[] node;           // node each particle is linked to, -1 for static particles
+    private final int[] next, prev;     // links of the node lists, -1 at the ends
+    private final double[] homeX, homeY, homeSize; // lower left corner and width of the home of each particle
+
+    private int[] stack = new int[64];  // nodes left to visit by the current search
+    private int[] buffer = new int[16]; // particles collected by the last query
+    private int found;                  // number of valid entries in buffer
+
+    /**
+     * Builds the tree for the given particles at their current positions.
+     *
+     * @param store the particles
+     */
+    QuadTree(ParticleStore store) {
+        this.store = store;
+        int n = store.size();
+
+        double max = 0.0;
+        for (int i = 0; i < n; i++) {
+            if (!store.isStatic(i)) {
+                max = Math.max(max, store.radius(i));
+            }
+        }
+        this.maxRadius = max;
+        // the children of a split leaf must be at least one diameter wide,
+        // particles without size stop splitting at a millionth of the box
+        this.minSize = Math.max(4 * maxRadius, 1e-6);
+
+        x0 = new double[64];
+        y0 = new double[64];
+        size = new double[64];
+        child = new int[64];
+        parent = new int[64];
+        head = new int[64];
+        count = new int[64];
+        nodes = 1;
+        size[0] = 1.0;
+        child[0] = -1;
+        parent[0] = -1;
+        head[0] = -1;
+
+        node = new int[n];
+        next = new int[n];
+        prev = new int[n];
+        homeX = new double[n];
+        homeY = new double[n];
+        homeSize = new double[n];
+        for (int i = 0; i < n; i++) {
+            if (store.isStatic(i)) {
+                node[i] = -1;
+                continue;
+            }
+            // there are no events yet, so overfull leaves pass their
+            // particles down right away
+            int leaf = locate(0, store.rx(i), store.ry(i), store.vx(i), store.vy(i));
+            home(i, leaf);
+            link(i, leaf);
+            while (count[leaf] > SPLIT && size[leaf] >= minSize) {
+                split(leaf);
+                for (int j = head[leaf]; j != -1; j = head[leaf]) {
+                    unlink(j);
+                    int c = locate(leaf, store.rx(j), store.ry(j), store.vx(j), store.vy(j));
+                    home(j, c);
+                    link(j, c);
+                }
+                leaf = locate(leaf, store.rx(i), store.ry(i), store.vx(i), store.vy(i));
+            }
+        }
+    }
+
+    /**
+     * Returns the time until the center of particle {@code i} leaves its
+     * home, assuming no intervening collision.
+     *
+     * @param i the index of the particle
+     * @return the time until particle {@code i} leaves its home
+     */
+    @Override
+    public double timeToCross(int i) {
+        return Math.min(timeToCross(store.rx(i), store.vx(i), homeX[i], homeSize[i]),
+                timeToCross(store.ry(i), store.vy(i), homeY[i], homeSize[i]));
+    }
+
+    /**
+     * Moves particle {@code i} into the leaf it is crossing into at this
+     * instant, splitting or merging leaves as their occupancy changes, and
+     * collects the particles whose homes have just come within its reach.
+     *
+     * @param i the index of the particle
+     * @return the number of particles collected, see {@link #get(int)}
+     */
+    @Override
+    public int cross(int i) {
+        double rx = store.rx(i), ry = store.ry(i), vx = store.vx(i), vy = store.vy(i);
+        double hx = homeX[i], hy = homeY[i], hs = homeSize[i];
+        double dtX = timeToCross(rx, vx, hx, hs);
+        double dtY = timeToCross(ry, vy, hy, hs);
+
+        // the point where i leaves its home, on the side it is crossing and
+        // inside the home along the other axis
+        double x = Math.max(hx, Math.min(hx + hs, rx));
+        double y = Math.max(hy, Math.min(hy + hs, ry));
+        if (dtX <= dtY) {
+            x = vx > 0 ? hx + hs : hx;
+        } else {
+            y = vy > 0 ? hy + hs : hy;
+        }
+        move(i, locate(0, x, y, vx, vy));
+
+        // the particles within reach of the new home but not of the old one
+        found = 0;
+        double ri = store.radius(i);
+        double reach = ri + maxRadius;
+        int top = start(node[i], homeX[i] - reach, homeY[i] - reach,
+                homeX[i] + homeSize[i] + reach, homeY[i] + homeSize[i] + reach);
+        while (top > 0) {
+            int k = stack[--top];
+            if (k < 0) {
+                k = ~k;     // an enclosing node, only its own particles are searched
+            } else if (reaches(k, homeX[i], homeY[i], homeSize[i], reach)) {
+                top = pushChildren(k, top);
+            } else {
+                continue;
+            }
+            for (int j = head[k]; j != -1; j = next[j]) {
+                double rij = ri + store.radius(j);
+                if (j != i && near(j, homeX[i], homeY[i], homeSize[i], rij)
+                        && !near(j, hx, hy, hs, rij)) {
+                    collect(j);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Moves particle {@code i} into the leaf around its center if its home is
+     * no longer a leaf, and collects the particles whose homes are within its
+     * reach, including {@code i} itself.
+     *
+     * @param i the index of the particle
+     * @return the number of particles collected, see {@link #get(int)}
+     */
+    @Override
+    public int neighbours(int i) {
+        // i is predicted afresh, so its home may shrink into a leaf split
+        // since or grow into a merged one, the old events of i are stale
+        double hx = homeX[i], hy = homeY[i], hs = homeSize[i];
+        int leaf = locate(node[i], Math.max(hx, Math.min(hx + hs, store.rx(i))),
+                Math.max(hy, Math.min(hy + hs, store.ry(i))), store.vx(i), store.vy(i));
+        if (leaf != node[i] || size[leaf] != hs) {
+            move(i, leaf);
+        }
+
+        found = 0;
+        double ri = store.radius(i);
+        double reach = ri + maxRadius;
+        int top = start(node[i], homeX[i] - reach, homeY[i] - reach,
+                homeX[i] + homeSize[i] + reach, homeY[i] + homeSize[i] + reach);
+        while (top > 0) {
+            int k = stack[--top];
+            if (k < 0) {
+                k = ~k;     // an enclosing node, only its own particles are searched
+            } else if (reaches(k, homeX[i], homeY[i], homeSize[i], reach)) {
+                top = pushChildren(k, top);
+            } else {
+                continue;
+            }
+            for (int j = head[k]; j != -1; j = next[j]) {
+                if (near(j, homeX[i], homeY[i], homeSize[i], ri + store.radius(j))) {
+                    collect(j);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Collects the particles which may overlap the given rectangle, that is
+     * the particles whose homes are within their radius of it.
+     *
+     * @param x0 the left edge of the rectangle
+     * @param y0 the bottom edge of the rectangle
+     * @param x1 the right edge of the rectangle
+     * @param y1 the top edge of the rectangle
+     * @return the number of particles collected, see {@link #get(int)}
+     */
+    @Override
+    public int query(double x0, double y0, double x1, double y1) {
+        found = 0;
+        int top = push(0, 0);
+        while (top > 0) {
+            int k = stack[--top];
+            if (gap(this.x0[k], this.size[k], x0, x1) > maxRadius
+                    || gap(this.y0[k], this.size[k], y0, y1) > maxRadius) {
+                continue;
+            }
+            for (int j = head[k]; j != -1; j = next[j]) {
+                double r = store.radius(j);
+                if (gap(homeX[j], homeSize[j], x0, x1) <= r && gap(homeY[j], homeSize[j], y0, y1) <= r) {
+                    collect(j);
+                }
+            }
+            top = pushChildren(k, top);
+        }
+        return found;
+    }
+
+    /**
+     * Returns the k-th particle collected by the last query.
+     *
+     * @param k the position in the result of the last query
+     * @return the index of the particle
+     */
+    @Override
+    public int get(int k) {
+        return buffer[k];
+    }
+
+    /**
+     * Returns false, the leaves do not wrap around a periodic box.
+     *
+     * @return {@code false}
+     */
+    @Override
+    public boolean wraps() {
+        return false;
+    }
+
+    // time for a coordinate moving with velocity v to leave the interval of
+    // width s from lo, the edges of the box are never crossed since walls are
+    // reached first
+    private double timeToCross(double r, double v, double lo, double s) {
+        if (v > 0 && lo + s < 1.0) {
+            return Math.max(0.0, (lo + s - r) / v);
+        } else if (v < 0 && lo > 0.0) {
+            return Math.max(0.0, (lo - r) / v);
+        } else {
+            return INFINITY;
+        }
+    }
+
+    // the leaf below node k containing point (x, y), a point on the edge
+    // between two nodes goes to the one it is moving into
+    private int locate(int k, double x, double y, double vx, double vy) {
+        while (child[k] != -1) {
+            double half = size[k] / 2;
+            double mx = x0[k] + half, my = y0[k] + half;
+            int c = child[k];
+            if (x > mx || (x == mx && vx > 0)) {
+                c += 1;
+            }
+            if (y > my || (y == my && vy > 0)) {
+                c += 2;
+            }
+            k = c;
+        }
+        return k;
+    }
+
+    // makes leaf the home of particle i, splitting it if it got overfull and
+    // merging the leaves around the node i was linked to if they emptied
+    private void move(int i, int leaf) {
+        int old = node[i];
+        unlink(i);
+        home(i, leaf);
+        link(i, leaf);
+        if (count[leaf] > SPLIT && size[leaf] >= minSize) {
+            // the particles at home in the leaf stay linked to it until they
+            // are predicted again
+            split(leaf);
+        }
+        for (int k = child[old] == -1 ? parent[old] : old; k != -1 && canMerge(k); k = parent[k]) {
+            merge(k);
+        }
+    }
+
+    // whether the children of node k are leaves holding together with k
+    // fewer than MERGE particles
+    private boolean canMerge(int k) {
+        int c = child[k];
+        if (c == -1) {
+            return false;
+        }
+        int total = count[k];
+        for (int q = c; q < c + 4; q++) {
+            if (child[q] != -1) {
+                return false;
+            }
+            total += count[q];
+        }
+        return total < MERGE;
+    }
+
+    // turns leaf k into a node with four empty children
+    private void split(int k) {
+        int c = allocate();
+        double half = size[k] / 2;
+        for (int q = 0; q < 4; q++) {
+            x0[c + q] = x0[k] + (q & 1) * half;
+            y0[c + q] = y0[k] + (q >> 1) * half;
+            size[c + q] = half;
+            child[c + q] = -1;
+            parent[c + q] = k;
+            head[c + q] = -1;
+            count[c + q] = 0;
+        }
+        child[k] = c;
+    }
+
+    // turns node k back into a leaf, the particles of its children are
+    // linked to it and keep their homes
+    private void merge(int k) {
+        int c = child[k];
+        for (int q = c; q < c + 4; q++) {
+            for (int j = head[q]; j != -1; j = head[q]) {
+                unlink(j);
+                link(j, k);
+            }
+        }
+        child[k] = -1;
+        child[c] = free;
+        free = c;
+    }
+
+    // the first of four unused nodes
+    private int allocate() {
+        if (free != -1) {
+            int c = free;
+            free = child[c];
+            return c;
+        }
+        if (nodes + 4 > size.length) {
+            int capacity = 2 * size.length;
+            x0 = Arrays.copyOf(x0, capacity);
+            y0 = Arrays.copyOf(y0, capacity);
+            size = Arrays.copyOf(size, capacity);
+            child = Arrays.copyOf(child, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            head = Arrays.copyOf(head, capacity);
+            count = Arrays.copyOf(count, capacity);
+        }
+        nodes += 4;
+        return nodes - 4;
+    }
+
+    // pushes the smallest node around k strictly containing the given
+    // rectangle, and the nodes enclosing that one marked by their complement,
+    // returns the new top of the stack
+    private int start(int k, double x0, double y0, double x1, double y1) {
+        while (parent[k] != -1 && !(this.x0[k] < x0 && this.y0[k] < y0
+                && x1 < this.x0[k] + size[k] && y1 < this.y0[k] + size[k])) {
+            k = parent[k];
+        }
+        int top = push(k, 0);
+        for (int a = parent[k]; a != -1; a = parent[a]) {
+            top = push(~a, top);
+        }
+        return top;
+    }
+
+    // whether node k is within reach of the square of width s from (x, y)
+    // along both axes
+    private boolean reaches(int k, double x, double y, double s, double reach) {
+        return gap(x0[k], size[k], x, x + s) <= reach && gap(y0[k], size[k], y, y + s) <= reach;
+    }
+
+    // whether the home of particle j is within reach of the square of width s
+    // from (x, y) along both axes
+    private boolean near(int j, double x, double y, double s, double reach) {
+        return gap(homeX[j], homeSize[j], x, x + s) <= reach && gap(homeY[j], homeSize[j], y, y + s) <= reach;
+    }
+
+    // appends particle j to the buffer
+    private void collect(int j) {
+        if (found == buffer.length) {
+            buffer = Arrays.copyOf(buffer, 2 * found);
+        }
+        buffer[found++] = j;
+    }
+
+    // pushes node k on the stack holding top nodes, returns the new top
+    private int push(int k, int top) {
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * top);
+        }
+        stack[top] = k;
+        return top + 1;
+    }
+
+    // pushes the children of node k, if any
+    private int pushChildren(int k, int top) {
+        int c = child[k];
+        if (c != -1) {
+            for (int q = c; q < c + 4; q++) {
+                top = push(q, top);
+            }
+        }
+        return top;
+    }
+
+    // distance from the interval of width s from lo to the interval [a, b],
+    // zero if they overlap
+    private static double gap(double lo, double s, double a, double b) {
+        return Math.max(0.0, Math.max(a - (lo + s), lo - b));
+    }
+
+    private void home(int i, int k) {
+        homeX[i] = x0[k];
+        homeY[i] = y0[k];
+        homeSize[i] = size[k];
+    }
+
+    // pushes particle i to the front of the list of node k
+    private void link(int i, int k) {
+        node[i] = k;
+        prev[i] = -1;
+        next[i] = head[k];
+        if (head[k] != -1) {
+            prev[head[k]] = i;
+        }
+        head[k] = i;
+        count[k]++;
+    }
+
+    // removes particle i from the list of its node
+    private void unlink(int i) {
+        int k = node[i];
+        if (prev[i] != -1) {
+            next[prev[i]] = next[i];
+        } else {
+            head[k] = next[i];
+        }
+        if (next[i] != -1) {
+            prev[next[i]] = prev[i];
+        }
+        count[k]--;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The base of the recorders, which draw the frames of a {@code CollisionSystem}
+ * into offscreen images and write them out on background threads without
+ * opening any window. They work in headless mode as well.
+ * <p>
+ * On each redraw event the simulator only copies the particles into a free
+ * snapshot. The snapshot is drawn into the offscreen image of an encoder
+ * thread, the image is written by the subclass on the same thread, and the
+ * snapshot is freed again. There are a few snapshots per encoder, so when the
+ * encoders fall behind, e.g. on a slow disk, no snapshot is free. A blocking
+ * recorder then makes the simulation wait for a free snapshot and records
+ * every frame. Otherwise the frame is skipped, so the recording loses frames
+ * but the simulation never waits on it, see {@link #skipped()}. By default a recorder blocks when the simulator runs
+ * headless, since nothing else keeps pace with it, and skips frames when a
+ * display paces it to the wall clock, see {@link #setBlocking(boolean)}.
+ *
+ * @author Manish Joshi
+ */
+abstract class Recorder implements FrameListener, Closeable {
+
+    private static final int BUFFERS = 2;   // snapshots per encoder thread
+
+    final int width, height;                // size of the images in pixels
+    private final ExecutorService encoders; // draws and writes the images
+    private final BlockingQueue<Snapshot> free; // snapshots not waiting to be written
+    private final ThreadLocal<Canvas> canvas;   // the image of each encoder thread
+    private final ThreadLocal<Renderer> renderer;
+
+    private boolean blocking;               // wait for a free snapshot instead of skipping the frame
+    private boolean chosen;                 // true once blocking is set, else it follows the display
+    private int redraws;                    // number of redraw events seen
+    private int frames;                     // number of frames handed to the encoders
+    private volatile IOException failure;   // the first error of an encoder
+
+    /**
+     * Initializes a recorder with the given number of encoder threads. A
+     * single thread writes the frames in order.
+     *
+     * @param width the width of the images in pixels
+     * @param height the height of the images in pixels
+     * @param threads the number of encoder threads
+     * @param buffers the number of snapshots waiting for each thread before
+     * frames are skipped
+     * @throws IllegalArgumentException if a size or the number of threads is
+     * not positive
+     */
+    Recorder(int width, int height, int threads, int buffers) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("image size must be positive");
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("number of threads must be positive");
+        }
+        this.width = width;
+        this.height = height;
+
+        free = new ArrayBlockingQueue<>(buffers * threads);
+        for (int i = 0; i < buffers * threads; i++) {
+            free.add(new Snapshot());
+        }
+        canvas = ThreadLocal.withInitial(
+                () -> Canvas.of(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB)));
+        renderer = ThreadLocal.withInitial(StampRenderer::new);
+        encoders = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "recorder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Initializes a recorder with the given number of encoder threads.
+     *
+     * @param width the width of the images in pixels
+     * @param height the height of the images in pixels
+     * @param threads the number of encoder threads
+     */
+    Recorder(int width, int height, int threads) {
+        this(width, height, threads, BUFFERS);
+    }
+
+    /**
+     * Makes the simulation wait for the encoders when they are behind, instead
+     * of skipping frames. By default a recorder blocks only when the simulator
+     * is headless.
+     *
+     * @param blocking if {@code true} every frame is recorded
+     */
+    public void setBlocking(boolean blocking) {
+        this.blocking = blocking;
+        this.chosen = true;
+    }
+
+    @Override
+    public final void start(boolean paced) {
+        if (!chosen) {
+            blocking = !paced;
+        }
+    }
+
+    @Override
+    public final void frame(double time, ParticleStore store) {
+        int redraw = redraws++;
+        Snapshot s = next();
+        if (s == null) {
+            return;         // every snapshot is still waiting to be written
+        }
+        s.copy(time, store);
+        int frame = frames++;
+        encoders.execute(() -> encode(s, frame, redraw));
+    }
+
+    // returns a free snapshot, waiting for one if blocking, or null if none is free
+    private Snapshot next() {
+        Snapshot s = free.poll();
+        if (s == null && blocking) {
+            try {
+                s = free.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();     // skip the frame
+            }
+        }
+        return s;
+    }
+
+    // draws the snapshot and writes the image on an encoder thread
+    private void encode(Snapshot s, int frame, int redraw) {
+        try {
+            if (failure == null) {  // else the recording is broken already
+                Canvas c = canvas.get();
+                renderer.get().render(s, c);
+                write(s, c, frame, redraw);
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            fail(new IOException("could not write frame " + redraw, e));
+        } finally {
+            free.add(s);
+        }
+    }
+
+    // keeps the first error, later frames are not written
+    private synchronized void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Writes a frame out, called on an encoder thread.
+     *
+     * @param s the snapshot of the frame, freed once this method returns
+     * @param c the canvas the frame is drawn on
+     * @param frame the number of the frame among the frames recorded
+     * @param redraw the number of the frame among all redraw events, frames
+     * skipped included
+     * @throws IOException if the frame could not be written
+     */
+    abstract void write(Snapshot s, Canvas c, int frame, int redraw) throws IOException;
+
+    /**
+     * Completes the recording once every frame is written, called on the
+     * thread closing the recorder. Does nothing by default.
+     *
+     * @param redraws the number of redraw events, frames skipped included
+     * @throws IOException if the recording could not be completed
+     */
+    void finish(int redraws) throws IOException {
+    }
+
+    /**
+     * Returns the number of frames handed to the encoders so far.
+     *
+     * @return the number of frames recorded
+     */
+    public int frames() {
+        return frames;
+    }
+
+    /**
+     * Returns the number of frames skipped so far because the encoders were
+     * behind.
+     *
+     * @return the number of frames skipped
+     */
+    public int skipped() {
+        return redraws - frames;
+    }
+
+    /**
+     * Waits until every frame recorded is written, stops the encoders and
+     * completes the recording.
+     *
+     * @throws IOException if a frame could not be written, or drawn
+     */
+    @Override
+    public void close() throws IOException {
+        encoders.shutdown();
+        try {
+            while (!encoders.awaitTermination(1, TimeUnit.SECONDS)) {
+                // the encoders are still behind
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing frames", e);
+        }
+        try {
+            finish(redraws);
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            fail(new IOException("could not complete the recording", e));
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
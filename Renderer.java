@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.geom.Path2D;
+
+/**
+ * Draws a snapshot of the particles on a canvas, replacing whatever was drawn
+ * before. The display presents the frame afterwards.
+ *
+ * @author Manish Joshi
+ */
+interface Renderer {
+
+    /**
+     * Draws the particles of the snapshot.
+     *
+     * @param s the snapshot to draw
+     * @param c the canvas to draw on
+     */
+    void render(Snapshot s, Canvas c);
+
+    /**
+     * Forgets what this renderer drew before, for when something else has
+     * drawn on the canvas since. Renderers which only repaint what changed
+     * then repaint the whole of the next frame.
+     */
+    default void reset() {
+    }
+
+    /**
+     * Finds the parts of the canvas repainted by the last frame, for drawing
+     * over it. Renderers which only repaint what changed append those parts
+     * to the path as rectangles of pixels, and the rest of the canvas is left
+     * as it was, with whatever was drawn over it. By default the whole canvas
+     * is repainted.
+     *
+     * @param path the path to append the parts repainted to
+     * @return {@code false} if the whole canvas was repainted, in which case
+     * nothing is appended
+     */
+    default boolean repainted(Path2D path) {
+        return false;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.geom.Path2D;
+
+/**
+ * A straight obstacle between two points, such as a wall dividing the box.
+ * Particles bounce off both of its sides and off its ends.
+ *
+ * @author Manish Joshi
+ */
+public class Segment extends Obstacle {
+
+    private final double x0, y0, x1, y1;    // the end points
+    private final double ux, uy;            // the unit vector from the first end point to the second
+    private final double length;            // the length
+
+    /**
+     * Initializes a segment between the given points.
+     *
+     * @param x0 <em>x</em> coordinate of one end point
+     * @param y0 <em>y</em> coordinate of one end point
+     * @param x1 <em>x</em> coordinate of the other end point
+     * @param y1 <em>y</em> coordinate of the other end point
+     */
+    public Segment(double x0, double y0, double x1, double y1) {
+        this.x0 = x0;
+        this.y0 = y0;
+        this.x1 = x1;
+        this.y1 = y1;
+        this.length = Math.hypot(x1 - x0, y1 - y0);
+        this.ux = length > 0 ? (x1 - x0) / length : 0.0;
+        this.uy = length > 0 ? (y1 - y0) / length : 0.0;
+        xmin = xmax = x0;
+        ymin = ymax = y0;
+        include(x1, y1);
+    }
+
+    @Override
+    double timeToHit(double rx, double ry, double vx, double vy, double radius) {
+        double time = Math.min(timeToHit(x0, y0, rx, ry, vx, vy, radius),
+                timeToHit(x1, y1, rx, ry, vx, vy, radius));
+        // the side of the segment the disc is on, and its speed towards it
+        double d = (rx - x0) * -uy + (ry - y0) * ux;
+        double vd = vx * -uy + vy * ux;
+        if (d * vd < 0) {
+            double dt = Math.max(0.0, (Math.abs(d) - radius) / Math.abs(vd));
+            // the disc must touch the segment between its ends
+            double s = (rx + vx * dt - x0) * ux + (ry + vy * dt - y0) * uy;
+            if (s >= 0 && s <= length) {
+                time = Math.min(time, dt);
+            }
+        }
+        return time;
+    }
+
+    @Override
+    void closest(double x, double y) {
+        double s = Math.max(0.0, Math.min(length, (x - x0) * ux + (y - y0) * uy));
+        qx = x0 + s * ux;
+        qy = y0 + s * uy;
+        nx = -uy;
+        ny = ux;
+    }
+
+    @Override
+    void trace(Path2D path, Canvas c) {
+        path.moveTo(c.x0 + x0 * c.sx, c.y0 + y0 * c.sy);
+        path.lineTo(c.x0 + x1 * c.sx, c.y0 + y1 * c.sy);
+    }
+}
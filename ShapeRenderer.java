@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import dependencies.*;
+
+/**
+ * Draws each particle as a filled circle through the Standard Draw library,
+ * which renders it with antialiasing through {@code Graphics2D}. This is the
+ * default renderer. It only draws on the Standard Draw window, so the canvas
+ * must be the one of {@link Canvas#stdDraw()}.
+ *
+ * @author Manish Joshi
+ */
+class ShapeRenderer implements Renderer {
+
+    @Override
+    public void render(Snapshot s, Canvas c) {
+        StdDraw.clear();    // clear the canvas
+        for (int i = 0; i < s.n; i++) {
+            StdDraw.setPenColor(Palette.color(s.color[i]));
+            StdDraw.filledCircle(s.rx[i], s.ry[i], s.radius[i]);
+        }
+    }
+}
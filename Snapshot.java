@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * The positions, radii, colors and kinetic energies of the particles at one
+ * instant, copied out of a {@code ParticleStore} into primitive arrays so that
+ * they can be drawn on another thread while the simulation goes on. A snapshot
+ * holds either all the particles or only some of them, such as the ones in
+ * view, and records the index of each in the store.
+ *
+ * @author Manish Joshi
+ */
+class Snapshot {
+
+    double time;                // the time of the simulation the snapshot was taken at
+    int n;                      // number of particles
+    int[] index;                // index of each particle in the store
+    double[] rx, ry;            // positions
+    double[] radius;            // radii
+    char[] color;               // colors as indices into the palette
+    double[] energy;            // kinetic energies
+    boolean periodic;           // true if the box wraps around
+
+    /**
+     * Initializes an empty snapshot.
+     */
+    Snapshot() {
+        resize(0);
+    }
+
+    /**
+     * Copies the particles of the given store into this snapshot.
+     *
+     * @param time the current time of the simulation
+     * @param store the particles, all moved to the current time
+     */
+    void copy(double time, ParticleStore store) {
+        resize(store.size());
+        this.time = time;
+        this.periodic = store.isPeriodic();
+        for (int i = 0; i < n; i++) {
+            set(i, store, i);
+        }
+    }
+
+    /**
+     * Empties this snapshot, to be filled with {@link #add}.
+     *
+     * @param time the current time of the simulation
+     */
+    void clear(double time) {
+        this.time = time;
+        n = 0;
+    }
+
+    /**
+     * Appends a particle of the given store to this snapshot.
+     *
+     * @param store the particles, all moved to the current time
+     * @param i the index of the particle
+     */
+    void add(ParticleStore store, int i) {
+        if (n == rx.length) {
+            int capacity = Math.max(16, 2 * n);
+            index = Arrays.copyOf(index, capacity);
+            rx = Arrays.copyOf(rx, capacity);
+            ry = Arrays.copyOf(ry, capacity);
+            radius = Arrays.copyOf(radius, capacity);
+            color = Arrays.copyOf(color, capacity);
+            energy = Arrays.copyOf(energy, capacity);
+        }
+        periodic = store.isPeriodic();
+        set(n++, store, i);
+    }
+
+    // copies particle i of the store to entry k
+    private void set(int k, ParticleStore store, int i) {
+        index[k] = i;
+        rx[k] = store.rx(i);
+        ry[k] = store.ry(i);
+        radius[k] = store.radius(i);
+        color[k] = (char) store.paletteIndex(i);
+        energy[k] = store.kineticEnergy(i);
+    }
+
+    /**
+     * Sets this snapshot to the linear interpolation between two snapshots.
+     * Particles which are not at the same entry of both are taken from the
+     * later snapshot. In a periodic box a particle which went through a wall
+     * in between moves along the shortest way, through the wall, and is
+     * wrapped back into the box.
+     *
+     * @param from the earlier snapshot
+     * @param to the later snapshot
+     * @param alpha the fraction of the way from {@code from} to {@code to}
+     */
+    void interpolate(Snapshot from, Snapshot to, double alpha) {
+        resize(to.n);
+        time = from.time + alpha * (to.time - from.time);
+        periodic = to.periodic;
+        for (int i = 0; i < n; i++) {
+            index[i] = to.index[i];
+            if (i < from.n && from.index[i] == to.index[i]) {
+                double dx = to.rx[i] - from.rx[i], dy = to.ry[i] - from.ry[i];
+                if (periodic) {
+                    // the nearest image, the box is one unit wide
+                    dx -= Math.rint(dx);
+                    dy -= Math.rint(dy);
+                }
+                rx[i] = wrap(from.rx[i] + alpha * dx);
+                ry[i] = wrap(from.ry[i] + alpha * dy);
+            } else {
+                rx[i] = to.rx[i];
+                ry[i] = to.ry[i];
+            }
+            radius[i] = to.radius[i];
+            color[i] = to.color[i];
+            energy[i] = to.energy[i];
+        }
+    }
+
+    // the coordinate brought back into the box if it is periodic
+    private double wrap(double x) {
+        return periodic ? x - Math.floor(x) : x;
+    }
+
+    // makes room for n particles
+    private void resize(int n) {
+        this.n = n;
+        if (rx == null || rx.length < n) {
+            index = new int[n];
+            rx = new double[n];
+            ry = new double[n];
+            radius = new double[n];
+            color = new char[n];
+            energy = new double[n];
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A spatial index of the moving particles used as a broad phase by the
+ * {@code CollisionSystem}. The box is divided into regions, and a particle can
+ * only touch the particles found in the regions around its own before it
+ * leaves its region. Leaving a region is scheduled as an event, upon which the
+ * particle is moved to its new region and the particles which have just come
+ * within reach are collected.
+ * <p>
+ * The queries collect particles into a buffer of the index, read back with
+ * {@link #get(int)} until the next query. Static particles are left out, they
+ * are indexed by a {@code StaticGrid} instead.
+ *
+ * @author Manish Joshi
+ */
+interface SpatialIndex {
+
+    /**
+     * Returns the time until the center of particle {@code i} leaves its
+     * current region, assuming no intervening collision.
+     *
+     * @param i the index of the particle
+     * @return the time until particle {@code i} leaves its region
+     */
+    double timeToCross(int i);
+
+    /**
+     * Moves particle {@code i} into the region it is crossing into at this
+     * instant and collects the particles which have just come within its
+     * reach. Those are the only new candidates for collisions.
+     *
+     * @param i the index of the particle
+     * @return the number of particles collected, see {@link #get(int)}
+     */
+    int cross(int i);
+
+    /**
+     * Collects the particles within reach of particle {@code i}, possibly
+     * including {@code i} itself.
+     *
+     * @param i the index of the particle
+     * @return the number of particles collected, see {@link #get(int)}
+     */
+    int neighbours(int i);
+
+    /**
+     * Collects the particles which may overlap the given rectangle, and
+     * possibly some more.
+     *
+     * @param x0 the left edge of the rectangle
+     * @param y0 the bottom edge of the rectangle
+     * @param x1 the right edge of the rectangle
+     * @param y1 the top edge of the rectangle
+     * @return the number of particles collected, see {@link #get(int)}
+     */
+    int query(double x0, double y0, double x1, double y1);
+
+    /**
+     * Returns the k-th particle collected by the last query.
+     *
+     * @param k the position in the result of the last query
+     * @return the index of the particle
+     */
+    int get(int k);
+
+    /**
+     * Returns whether the index finds the particles within reach across the
+     * walls of a periodic box, as nearest images. If not, a periodic box is
+     * searched by brute force instead.
+     *
+     * @return {@code true} if the index can be used in a periodic box
+     */
+    boolean wraps();
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * A disc of given radius in pixels and given color rasterized once, with its
+ * edge antialiased, and copied into the pixels of a frame wherever a particle
+ * of that radius and color is drawn. Blending is done in integer arithmetic
+ * directly on the {@code int} pixels of an image of type
+ * {@code BufferedImage.TYPE_INT_ARGB}.
+ *
+ * @author Manish Joshi
+ */
+class Sprite {
+
+    private static final int SAMPLES = 4;       // subsamples per pixel along each axis
+    private static final int STEPS = 4;         // radii are rounded to a quarter of a pixel
+    private static final int CACHED = 4096;     // most sprites kept in a cache
+
+    private final int size;                     // width and height in pixels
+    private final int[] argb;                   // the pixels, row by row
+
+    // rasterizes a disc of radius r pixels centered in the sprite
+    private Sprite(double r, int rgb) {
+        size = (int) Math.ceil(2 * r) + 2;
+        argb = new int[size * size];
+        double c = size / 2.0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int inside = 0;
+                for (int sy = 0; sy < SAMPLES; sy++) {
+                    for (int sx = 0; sx < SAMPLES; sx++) {
+                        double dx = x + (sx + 0.5) / SAMPLES - c;
+                        double dy = y + (sy + 0.5) / SAMPLES - c;
+                        if (dx * dx + dy * dy <= r * r) {
+                            inside++;
+                        }
+                    }
+                }
+                int alpha = (255 * inside + SAMPLES * SAMPLES / 2) / (SAMPLES * SAMPLES);
+                argb[y * size + x] = alpha << 24 | rgb & 0xFFFFFF;
+            }
+        }
+    }
+
+    /**
+     * Returns the column of the left edge of this sprite when centered on the
+     * given <em>x</em> coordinate in pixels.
+     *
+     * @param px the <em>x</em> coordinate of the center in pixels
+     * @return the leftmost column covered
+     */
+    int left(double px) {
+        return (int) Math.floor(px - size / 2.0 + 0.5);
+    }
+
+    /**
+     * Returns the row of the top edge of this sprite when centered on the
+     * given <em>y</em> coordinate in pixels.
+     *
+     * @param py the <em>y</em> coordinate of the center in pixels
+     * @return the topmost row covered
+     */
+    int top(double py) {
+        return (int) Math.floor(py - size / 2.0 + 0.5);
+    }
+
+    /**
+     * Returns the width and height of this sprite in pixels.
+     *
+     * @return the size in pixels
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Blends this sprite over the pixels of an image, with its top left corner
+     * at the given column and row, leaving the pixels outside of the clip
+     * rectangle untouched.
+     *
+     * @param pixels the pixels of the image, row by row
+     * @param width the width of the image
+     * @param left the leftmost column covered
+     * @param top the topmost row covered
+     * @param x0 the first column of the clip rectangle
+     * @param y0 the first row of the clip rectangle
+     * @param x1 the column past the last of the clip rectangle
+     * @param y1 the row past the last of the clip rectangle
+     */
+    void stamp(int[] pixels, int width, int left, int top, int x0, int y0, int x1, int y1) {
+        int fromX = Math.max(left, x0), toX = Math.min(left + size, x1);
+        int fromY = Math.max(top, y0), toY = Math.min(top + size, y1);
+        for (int y = fromY; y < toY; y++) {
+            int src = (y - top) * size - left;
+            int dst = y * width;
+            for (int x = fromX; x < toX; x++) {
+                int s = argb[src + x];
+                int a = s >>> 24;
+                if (a == 255) {
+                    pixels[dst + x] = s;
+                } else if (a != 0) {
+                    pixels[dst + x] = blend(s, pixels[dst + x], a);
+                }
+            }
+        }
+    }
+
+    // blends the color of s with weight a over the opaque color d
+    private static int blend(int s, int d, int a) {
+        int b = 255 - a;
+        int red   = (((s >> 16) & 0xFF) * a + ((d >> 16) & 0xFF) * b + 127) / 255;
+        int green = (((s >> 8) & 0xFF) * a + ((d >> 8) & 0xFF) * b + 127) / 255;
+        int blue  = ((s & 0xFF) * a + (d & 0xFF) * b + 127) / 255;
+        return 0xFF000000 | red << 16 | green << 8 | blue;
+    }
+
+    /**
+     * A cache of sprites keyed by radius and color. Radii below half a pixel
+     * are drawn as a single pixel, like the Standard Draw library does. The
+     * keys are kept unboxed, so a lookup allocates nothing. A cache is not
+     * safe for use by several threads at once.
+     */
+    static class Cache {
+
+        // open addressing on the packed keys, at most half full, 0 marks an empty entry
+        private final long[] keys = new long[2 * CACHED];
+        private final Sprite[] sprites = new Sprite[2 * CACHED];
+        private int size;                       // number of sprites kept
+
+        /**
+         * Returns the sprite of a disc of given radius and color, rasterizing
+         * it on first use.
+         *
+         * @param r the radius in pixels
+         * @param rgb the color as a packed RGB value
+         * @return the sprite
+         */
+        Sprite get(double r, int rgb) {
+            int steps = Math.max(STEPS / 2, (int) Math.round(r * STEPS));
+            long key = (long) steps << 32 | rgb & 0xFFFFFFFFL;
+            int h = slot(key);
+            while (keys[h] != 0) {
+                if (keys[h] == key) {
+                    return sprites[h];
+                }
+                h = (h + 1) & (keys.length - 1);
+            }
+            if (size == CACHED) {
+                // too many radii or colors to keep them all
+                Arrays.fill(keys, 0);
+                Arrays.fill(sprites, null);
+                size = 0;
+                h = slot(key);
+            }
+            Sprite sprite = new Sprite((double) steps / STEPS, rgb);
+            keys[h] = key;
+            sprites[h] = sprite;
+            size++;
+            return sprite;
+        }
+
+        // the first entry to probe for a key, keys are never 0 since steps is positive
+        private int slot(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (keys.length - 1);
+        }
+    }
+}
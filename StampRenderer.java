@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Draws each particle by copying a pre-rasterized sprite of its radius and
+ * color straight into the pixels of the canvas, bypassing the shape pipeline of {@code Graphics2D} which allocates
+ * and rasterizes a new shape for every particle in every frame.
+ *
+ * @author Manish Joshi
+ */
+class StampRenderer implements Renderer {
+
+    private static final int WHITE = 0xFFFFFFFF;
+
+    private final Sprite.Cache sprites = new Sprite.Cache();
+
+    @Override
+    public void render(Snapshot s, Canvas c) {
+        Arrays.fill(c.pixels, WHITE);
+        for (int i = 0; i < s.n; i++) {
+            Sprite sprite = sprites.get(s.radius[i] * c.scale(), Palette.rgb(s.color[i]));
+            double px = c.x0 + s.rx[i] * c.sx, py = c.y0 + s.ry[i] * c.sy;
+            sprite.stamp(c.pixels, c.width, sprite.left(px), sprite.top(py), 0, 0, c.width, c.height);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid over the unit box indexing the static particles, the ones of
+ * infinite mass, for the {@code CollisionSystem}. Since static particles never
+ * move the grid is built once per simulation, with the particles of each cell
+ * packed into one array, and is never updated.
+ * <p>
+ * Each static particle is kept in every cell overlapped by its disc grown by
+ * the largest radius of the moving particles, so a moving particle can only
+ * touch the static particles of the cell its center is in. The first static
+ * particle hit by a moving particle is then found by walking the cells along
+ * its path and stopping at the first cell containing a hit. Only that hit is
+ * worth an event, since the particle cannot reach any static particle behind
+ * it, and a wall made of static particles costs nothing while no particle
+ * comes near it.
+ *
+ * @author Manish Joshi
+ */
+class StaticGrid {
+
+    private static final double INFINITY = Double.POSITIVE_INFINITY;
+
+    private final ParticleStore store;  // the particles indexed by the grid
+    private final int m;                // number of cells along each axis
+    private final double size;          // width of a cell
+    private final double reach;         // largest radius of the moving particles
+
+    private final int[] start;          // the static particles of cell c are cells[start[c]] to cells[start[c + 1] - 1]
+    private final int[] cells;          // the static particles of each cell, cell after cell
+
+    private double time;                // time until the hit found by the last cast
+    private int[] buffer = new int[16]; // particles collected by the last query
+    private int found;                  // number of valid entries in buffer
+
+    /**
+     * Builds the grid for the static particles of the given store.
+     *
+     * @param store the particles
+     */
+    StaticGrid(ParticleStore store) {
+        this.store = store;
+        int n = store.size();
+
+        int count = 0;
+        double maxRadius = 0.0, maxReach = 0.0;
+        for (int i = 0; i < n; i++) {
+            if (store.isStatic(i)) {
+                maxRadius = Math.max(maxRadius, store.radius(i));
+                count++;
+            } else {
+                maxReach = Math.max(maxReach, store.radius(i));
+            }
+        }
+        this.reach = maxReach;
+        // with cells at least as wide as a grown disc, each static particle is
+        // kept in at most four of them
+        double diameter = 2 * (maxRadius + reach);
+        int fit = diameter > 0 ? (int) (1.0 / diameter) : Integer.MAX_VALUE;
+        this.m = Math.max(1, Math.min(fit, (int) Math.ceil(Math.sqrt(count))));
+        this.size = 1.0 / m;
+
+        // count the particles of each cell, then place them
+        start = new int[m * m + 1];
+        for (int i = 0; i < n; i++) {
+            if (store.isStatic(i)) {
+                for (int x = low(store.rx(i), i); x <= high(store.rx(i), i); x++) {
+                    for (int y = low(store.ry(i), i); y <= high(store.ry(i), i); y++) {
+                        start[x * m + y + 1]++;
+                    }
+                }
+            }
+        }
+        for (int c = 0; c < m * m; c++) {
+            start[c + 1] += start[c];
+        }
+        cells = new int[start[m * m]];
+        int[] next = start.clone();
+        for (int i = 0; i < n; i++) {
+            if (store.isStatic(i)) {
+                for (int x = low(store.rx(i), i); x <= high(store.rx(i), i); x++) {
+                    for (int y = low(store.ry(i), i); y <= high(store.ry(i), i); y++) {
+                        cells[next[x * m + y]++] = i;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the first static particle hit by moving particle {@code i} within
+     * the given time, assuming no intervening collision.
+     *
+     * @param i the index of the moving particle
+     * @param limit the time within which the hit must happen
+     * @return the index of the static particle hit, or -1 if there is none,
+     * see {@link #time()} for the time until the hit
+     */
+    int cast(int i, double limit) {
+        double rx = store.rx(i), ry = store.ry(i);
+        double vx = store.vx(i), vy = store.vy(i);
+        int x = clamp((int) (rx * m)), y = clamp((int) (ry * m));
+
+        // times at which the center crosses the next boundary along each
+        // axis, and between two boundaries
+        double tx = vx > 0 ? ((x + 1) * size - rx) / vx : vx < 0 ? (x * size - rx) / vx : INFINITY;
+        double ty = vy > 0 ? ((y + 1) * size - ry) / vy : vy < 0 ? (y * size - ry) / vy : INFINITY;
+        double dtx = vx != 0 ? size / Math.abs(vx) : INFINITY;
+        double dty = vy != 0 ? size / Math.abs(vy) : INFINITY;
+
+        int hit = -1;
+        time = INFINITY;
+        while (true) {
+            int c = x * m + y;
+            for (int k = start[c]; k < start[c + 1]; k++) {
+                double dt = store.timeToHit(i, cells[k]);
+                if (dt < time) {
+                    time = dt;
+                    hit = cells[k];
+                }
+            }
+            // a hit in a later cell cannot come before the center leaves this one
+            double exit = Math.min(tx, ty);
+            if (time <= exit || exit > limit) {
+                break;
+            }
+            if (tx < ty) {
+                x += vx > 0 ? +1 : -1;
+                tx += dtx;
+            } else {
+                y += vy > 0 ? +1 : -1;
+                ty += dty;
+            }
+            if (x < 0 || x >= m || y < 0 || y >= m) {
+                break;
+            }
+        }
+        if (time > limit) {
+            time = INFINITY;
+            return -1;
+        }
+        return hit;
+    }
+
+    /**
+     * Returns the time until the hit found by the last call to
+     * {@link #cast(int, double)}.
+     *
+     * @return the time until the hit, infinite if there was none
+     */
+    double time() {
+        return time;
+    }
+
+    /**
+     * Collects the static particles which may overlap the given rectangle,
+     * each of them once.
+     *
+     * @param x0 the left edge of the rectangle
+     * @param y0 the bottom edge of the rectangle
+     * @param x1 the right edge of the rectangle
+     * @param y1 the top edge of the rectangle
+     * @return the number of particles collected, see {@link #get(int)}
+     */
+    int query(double x0, double y0, double x1, double y1) {
+        found = 0;
+        int cx0 = clamp((int) Math.floor(x0 * m)), cx1 = clamp((int) Math.floor(x1 * m));
+        int cy0 = clamp((int) Math.floor(y0 * m)), cy1 = clamp((int) Math.floor(y1 * m));
+        for (int x = cx0; x <= cx1; x++) {
+            for (int y = cy0; y <= cy1; y++) {
+                int c = x * m + y;
+                for (int k = start[c]; k < start[c + 1]; k++) {
+                    int i = cells[k];
+                    // a particle in several cells is collected from the first
+                    // of them inside the rectangle only
+                    if (x != Math.max(cx0, low(store.rx(i), i)) || y != Math.max(cy0, low(store.ry(i), i))) {
+                        continue;
+                    }
+                    if (found == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, 2 * found);
+                    }
+                    buffer[found++] = i;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the k-th particle collected by the last query.
+     *
+     * @param k the position in the result of the last query
+     * @return the index of the particle
+     */
+    int get(int k) {
+        return buffer[k];
+    }
+
+    // first and last cells along an axis overlapped by the grown disc of static particle i at coordinate r
+    private int low(double r, int i) {
+        return clamp((int) Math.floor((r - store.radius(i) - reach) * m));
+    }
+
+    private int high(double r, int i) {
+        return clamp((int) Math.floor((r + store.radius(i) + reach) * m));
+    }
+
+    private int clamp(int c) {
+        return Math.max(0, Math.min(m - 1, c));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import dependencies.*;
+
+/**
+ * Draws the frames of a {@code CollisionSystem} to the Standard Draw window.
+ * This is the display the simulator attaches by default unless it runs
+ * headless, and the only part of it which depends on AWT.
+ *
+ * @author Manish Joshi
+ */
+public class StdDrawDisplay implements FrameListener {
+
+    private final Renderer renderer;                    // draws the frames
+    private final Snapshot snapshot = new Snapshot();   // the particles to draw
+    private final int pause;                            // milliseconds to hold each frame
+    private final Viewport viewport;                    // the region in view, null for the whole box
+
+    /**
+     * Initializes the display, with double buffering enabled.
+     */
+    public StdDrawDisplay() {
+        this(new ShapeRenderer(), 20, null);
+    }
+
+    /**
+     * Initializes the display drawing with the given renderer, with double
+     * buffering enabled.
+     *
+     * @param renderer the renderer
+     * @param pause the number of milliseconds to hold each frame, 0 if the
+     * frames are paced otherwise
+     * @param viewport the region in view, or {@code null} to show the whole box
+     */
+    StdDrawDisplay(Renderer renderer, int pause, Viewport viewport) {
+        this.renderer = renderer;
+        this.pause = pause;
+        this.viewport = viewport;
+        CollisionSystem.useDoubleBuffering(true);
+    }
+
+    @Override
+    public void frame(double time, ParticleStore store) {
+        if (viewport != null) {
+            viewport.poll();
+            viewport.cull(time, store, snapshot);
+        } else {
+            snapshot.copy(time, store);
+        }
+        renderer.render(snapshot, Canvas.stdDraw());
+        StdDraw.show();     // in case double buffering is used in StdDraw
+        if (pause > 0) {
+            StdDraw.pause(pause);   // freeze StdDraw so that frame may be observed
+        }
+    }
+}
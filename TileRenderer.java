@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Draws the particles with the sprites of the {@code StampRenderer}, but
+ * splits the canvas into square tiles and rasterizes the tiles in parallel on
+ * a {@code ForkJoinPool}. Each particle is first binned to the tiles its
+ * sprite overlaps, then each tile is cleared and has its particles stamped,
+ * clipped to the tile, in the order of the snapshot. Tiles own disjoint pixels
+ * of the shared raster, so no locking is needed and the frame is the same as
+ * the one drawn by the {@code StampRenderer}.
+ * <p>
+ * The binning is parallel too. The particles are cut into consecutive chunks,
+ * each chunk looks up the sprites of its particles in a cache of its own and
+ * counts them per tile, and once the counts are laid out tile by tile, chunk
+ * by chunk, each chunk places its particles. Within a tile the chunks follow
+ * each other in order, so the particles keep the order of the snapshot.
+ *
+ * @author Manish Joshi
+ */
+class TileRenderer implements Renderer {
+
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int TILE = 64;         // width and height of a tile in pixels
+    private static final int BATCH = 4;         // tiles rasterized by one task at least
+    private static final int CHUNK = 4096;      // particles binned by one task at least
+
+    // the steps of a frame run by the tasks
+    private static final int COUNT = 0, PLACE = 1, RASTERIZE = 2;
+
+    private final ForkJoinPool pool;            // the threads binning the particles and rasterizing the tiles
+    private final Sprite.Cache[] sprites;       // the sprite cache of each chunk
+
+    // the frame being drawn
+    private Snapshot snapshot;                  // the particles
+    private Canvas canvas;                      // the canvas they are drawn on
+    private int[] pixels;                       // the pixels of the canvas
+    private int width, height;                  // the size of the canvas
+    private int columns, rows;                  // number of tiles along each axis
+    private int tiles;                          // number of tiles
+    private int chunks;                         // number of chunks the particles are cut into
+
+    // the particles binned by tile, those of tile t are entries start[t] to start[t+1]-1 of binned
+    private int[] start = new int[1];
+    private int[] binned = new int[0];
+
+    // the particles of chunk c in tile t, counted and then the next free entry
+    // of binned for them, at index c * tiles + t
+    private int[] counts = new int[0];
+
+    // the sprite of each particle and its top left corner
+    private Sprite[] sprite = new Sprite[0];
+    private int[] left = new int[0], top = new int[0];
+
+    /**
+     * Initializes a renderer drawing on the common pool.
+     */
+    TileRenderer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Initializes a renderer drawing on the given pool.
+     *
+     * @param pool the pool
+     */
+    TileRenderer(ForkJoinPool pool) {
+        this.pool = pool;
+        this.sprites = new Sprite.Cache[4 * pool.getParallelism()];
+    }
+
+    @Override
+    public void render(Snapshot s, Canvas canvas) {
+        this.snapshot = s;
+        this.canvas = canvas;
+        pixels = canvas.pixels;
+        width = canvas.width;
+        height = canvas.height;
+        columns = (width + TILE - 1) / TILE;
+        rows = (height + TILE - 1) / TILE;
+        tiles = columns * rows;
+
+        bin(s.n);
+        pool.invoke(new Task(RASTERIZE, 0, tiles));
+        this.snapshot = null;
+        this.canvas = null;
+    }
+
+    // finds the sprite of each particle and sorts the particles by tile
+    private void bin(int n) {
+        if (sprite.length < n) {
+            sprite = new Sprite[n];
+            left = new int[n];
+            top = new int[n];
+        }
+        chunks = Math.max(1, Math.min(sprites.length, n / CHUNK));
+        if (counts.length < chunks * tiles) {
+            counts = new int[chunks * tiles];
+        }
+        Arrays.fill(counts, 0, chunks * tiles, 0);
+        if (start.length < tiles + 1) {
+            start = new int[tiles + 1];
+        }
+
+        pool.invoke(new Task(COUNT, 0, chunks));
+
+        // lay out the tiles one after the other, and within each tile the chunks in order
+        int total = 0;
+        for (int t = 0; t < tiles; t++) {
+            start[t] = total;
+            for (int c = 0; c < chunks; c++) {
+                int k = counts[c * tiles + t];
+                counts[c * tiles + t] = total;
+                total += k;
+            }
+        }
+        start[tiles] = total;
+        if (binned.length < total) {
+            binned = new int[total];
+        }
+
+        pool.invoke(new Task(PLACE, 0, chunks));
+    }
+
+    // finds the sprites of the particles of chunk c and counts them in every tile they overlap
+    private void count(int c) {
+        if (sprites[c] == null) {
+            sprites[c] = new Sprite.Cache();
+        }
+        Sprite.Cache cache = sprites[c];
+        Snapshot s = snapshot;
+        int from = first(c), to = first(c + 1);
+        int offset = c * tiles;
+        for (int i = from; i < to; i++) {
+            Sprite p = cache.get(s.radius[i] * canvas.scale(), Palette.rgb(s.color[i]));
+            sprite[i] = p;
+            left[i] = p.left(canvas.x0 + s.rx[i] * canvas.sx);
+            top[i] = p.top(canvas.y0 + s.ry[i] * canvas.sy);
+
+            int c0 = Math.max(0, Math.floorDiv(left[i], TILE));
+            int c1 = Math.min(columns - 1, Math.floorDiv(left[i] + p.size() - 1, TILE));
+            int r0 = Math.max(0, Math.floorDiv(top[i], TILE));
+            int r1 = Math.min(rows - 1, Math.floorDiv(top[i] + p.size() - 1, TILE));
+            for (int r = r0; r <= r1; r++) {
+                for (int col = c0; col <= c1; col++) {
+                    counts[offset + r * columns + col]++;
+                }
+            }
+        }
+    }
+
+    // places the particles of chunk c in order, using counts as the next free entry of each tile
+    private void place(int c) {
+        int from = first(c), to = first(c + 1);
+        int offset = c * tiles;
+        for (int i = from; i < to; i++) {
+            int size = sprite[i].size();
+            int c0 = Math.max(0, Math.floorDiv(left[i], TILE));
+            int c1 = Math.min(columns - 1, Math.floorDiv(left[i] + size - 1, TILE));
+            int r0 = Math.max(0, Math.floorDiv(top[i], TILE));
+            int r1 = Math.min(rows - 1, Math.floorDiv(top[i] + size - 1, TILE));
+            for (int r = r0; r <= r1; r++) {
+                for (int col = c0; col <= c1; col++) {
+                    binned[counts[offset + r * columns + col]++] = i;
+                }
+            }
+        }
+    }
+
+    // the first particle of chunk c
+    private int first(int c) {
+        return (int) ((long) snapshot.n * c / chunks);
+    }
+
+    // clears tile t and stamps its particles
+    private void rasterize(int t) {
+        int x0 = (t % columns) * TILE, x1 = Math.min(x0 + TILE, width);
+        int y0 = (t / columns) * TILE, y1 = Math.min(y0 + TILE, height);
+        for (int y = y0; y < y1; y++) {
+            Arrays.fill(pixels, y * width + x0, y * width + x1, WHITE);
+        }
+        for (int k = start[t]; k < start[t + 1]; k++) {
+            int i = binned[k];
+            sprite[i].stamp(pixels, width, left[i], top[i], x0, y0, x1, y1);
+        }
+    }
+
+    // runs a step for a range of chunks or tiles, splitting it among the threads of the pool
+    private class Task extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int step;         // COUNT, PLACE or RASTERIZE
+        private final int from, to;     // the chunks or tiles from and to-1
+
+        Task(int step, int from, int to) {
+            this.step = step;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int batch = step == RASTERIZE ? BATCH : 1;
+            if (to - from <= batch) {
+                for (int k = from; k < to; k++) {
+                    if (step == COUNT) {
+                        count(k);
+                    } else if (step == PLACE) {
+                        place(k);
+                    } else {
+                        rasterize(k);
+                    }
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Task(step, from, mid), new Task(step, mid, to));
+            }
+        }
+    }
+}
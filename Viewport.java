@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2018 Manish Joshi
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import dependencies.*;
+
+import java.awt.event.KeyEvent;
+import java.util.Arrays;
+
+/**
+ * The region of the unit box shown in the Standard Draw window, which the user
+ * can zoom and pan. The region is applied as the scale of the window, so every
+ * renderer follows it.
+ * <p>
+ * Typing {@code +} or {@code -} zooms in or out around the center, the arrow
+ * keys pan by a tenth of the view, dragging with the mouse moves the view with
+ * it, and typing {@code 0} shows the whole box again.
+ * <p>
+ * Only the particles in view are moved to the time of the frame and copied
+ * into the snapshot drawn. To find them without testing each particle, the
+ * spatial index the simulator keeps up to date for its broad phase is
+ * searched around the view, so a frame costs time proportional to the number
+ * of particles near the view and not to their total number. The simulator
+ * always keeps a broad phase while the viewport is used.
+ * <p>
+ * The one exception is a periodic box too small for the cells to wrap around,
+ * where the simulator checks every pair of particles for each event. The
+ * viewport then sorts all the particles into a coarse grid of bins on every
+ * frame, a pass over all of them which is cheap next to the events between
+ * two frames, and searches only the bins overlapping the view.
+ *
+ * @author Manish Joshi
+ */
+class Viewport {
+
+    private static final double ZOOM = 1.25;        // zoom factor of each key press
+    private static final double PAN = 0.1;          // fraction of the view panned by each key press
+    private static final double MAX_ZOOM = 32;      // smallest view is 1/MAX_ZOOM of the box wide
+
+    // the region in view as {xmin, ymin, xmax, ymax}, replaced as a whole so other threads see it consistently
+    private volatile double[] region = {0.0, 0.0, 1.0, 1.0};
+
+    // input state, used on the thread drawing only
+    private boolean dragging;                       // true while the mouse is pressed
+    private double grabX, grabY;                    // point of the box under the mouse when pressed
+    private double mouseX, mouseY;                  // position of the mouse last seen
+
+    private SpatialIndex grid;                      // the broad phase of the simulator, null if none
+    private StaticGrid statics;                     // the static particles left out of it, null if none
+
+    // the bins, particles of bin b are entries start[b] to start[b+1]-1 of order
+    private int bins;                               // number of bins along each axis
+    private int[] start = new int[1];
+    private int[] order = new int[0];
+    private int[] bin = new int[0];                 // the bin of each particle
+
+    /**
+     * Uses the broad phase of the simulator to find the particles in view,
+     * which must be up to date whenever {@link #cull} is called. The static
+     * particles are not in the broad phase and are found through their own
+     * grid.
+     *
+     * @param grid the broad phase, or {@code null} to sort all the particles
+     * into bins on every frame
+     * @param statics the grid of the static particles, or {@code null} if
+     * there are none
+     */
+    void index(SpatialIndex grid, StaticGrid statics) {
+        this.grid = grid;
+        this.statics = statics;
+    }
+
+    /**
+     * Applies the keys typed and the mouse moves since the last call to the
+     * region in view, and sets the scale of the Standard Draw window to it.
+     */
+    void poll() {
+        double[] r = region;
+        double x0 = r[0], y0 = r[1], x1 = r[2], y1 = r[3];
+        double w = x1 - x0;
+
+        double cx = (x0 + x1) / 2, cy = (y0 + y1) / 2;
+        double scale = 1.0;
+        double dx = 0.0, dy = 0.0;
+        while (StdDraw.hasNextKeyTyped()) {
+            char c = StdDraw.nextKeyTyped();
+            if (c == '+' || c == '=') {
+                scale /= ZOOM;
+            } else if (c == '-') {
+                scale *= ZOOM;
+            } else if (c == '0') {
+                scale = 1 / w;
+                cx = cy = 0.5;
+            }
+        }
+        if (StdDraw.isKeyPressed(KeyEvent.VK_LEFT)) {
+            dx -= PAN * w;
+        }
+        if (StdDraw.isKeyPressed(KeyEvent.VK_RIGHT)) {
+            dx += PAN * w;
+        }
+        if (StdDraw.isKeyPressed(KeyEvent.VK_DOWN)) {
+            dy -= PAN * w;
+        }
+        if (StdDraw.isKeyPressed(KeyEvent.VK_UP)) {
+            dy += PAN * w;
+        }
+
+        // keep the point grabbed under the mouse, the position of the mouse is
+        // in the scale of the view when it last moved, so only a move counts
+        if (StdDraw.isMousePressed()) {
+            double mx = StdDraw.mouseX(), my = StdDraw.mouseY();
+            if (!dragging) {
+                dragging = true;
+                grabX = mx;
+                grabY = my;
+            } else if (mx != mouseX || my != mouseY) {
+                dx += grabX - mx;
+                dy += grabY - my;
+            }
+            mouseX = mx;
+            mouseY = my;
+        } else {
+            dragging = false;
+        }
+
+        double half = Math.max(1 / MAX_ZOOM, Math.min(1.0, w * scale)) / 2;
+        cx = Math.max(half, Math.min(1 - half, cx + dx));
+        cy = Math.max(half, Math.min(1 - half, cy + dy));
+        if (cx - half != x0 || cy - half != y0 || cx + half != x1 || cy + half != y1) {
+            region = new double[] {cx - half, cy - half, cx + half, cy + half};
+        }
+        r = region;
+        Canvas.setScale(r[0], r[1], r[2], r[3]);
+    }
+
+    /**
+     * Moves the particles of the store which are at least partly in view to
+     * the current time and copies them into the snapshot. The other particles
+     * are not touched.
+     *
+     * @param time the current time of the simulation
+     * @param store the particles
+     * @param s the snapshot to fill
+     */
+    void cull(double time, ParticleStore store, Snapshot s) {
+        double[] r = region;
+        int n = store.size();
+        s.clear(time);
+        if (r[0] <= 0 && r[1] <= 0 && r[2] >= 1 && r[3] >= 1) {
+            for (int i = 0; i < n; i++) {
+                store.moveTo(i, time);
+                s.add(store, i);    // the whole box is in view
+            }
+            return;
+        }
+
+        if (grid != null) {
+            int found = grid.query(r[0], r[1], r[2], r[3]);
+            for (int k = 0; k < found; k++) {
+                add(store, grid.get(k), time, r, s);
+            }
+            if (statics != null) {
+                found = statics.query(r[0], r[1], r[2], r[3]);
+                for (int k = 0; k < found; k++) {
+                    add(store, statics.get(k), time, r, s);
+                }
+            }
+            return;
+        }
+
+        double maxRadius = sort(time, store);
+
+        // search the bins overlapping the view grown by the largest radius
+        int bx0 = clamp((int) ((r[0] - maxRadius) * bins));
+        int bx1 = clamp((int) ((r[2] + maxRadius) * bins));
+        int by0 = clamp((int) ((r[1] - maxRadius) * bins));
+        int by1 = clamp((int) ((r[3] + maxRadius) * bins));
+        for (int bx = bx0; bx <= bx1; bx++) {
+            for (int by = by0; by <= by1; by++) {
+                int b = bx * bins + by;
+                for (int k = start[b]; k < start[b + 1]; k++) {
+                    add(store, order[k], time, r, s);
+                }
+            }
+        }
+    }
+
+    // moves particle i to the given time and adds it to the snapshot if it overlaps the region
+    private static void add(ParticleStore store, int i, double time, double[] r, Snapshot s) {
+        store.moveTo(i, time);
+        double rx = store.rx(i), ry = store.ry(i), radius = store.radius(i);
+        if (rx + radius >= r[0] && rx - radius <= r[2] && ry + radius >= r[1] && ry - radius <= r[3]) {
+            s.add(store, i);
+        }
+    }
+
+    // moves the particles to the given time, sorts them into the bins and returns the largest radius
+    private double sort(double time, ParticleStore store) {
+        int n = store.size();
+        bins = Math.max(1, Math.min(1024, (int) Math.sqrt(n / 4.0)));
+        if (start.length < bins * bins + 1) {
+            start = new int[bins * bins + 1];
+        }
+        if (order.length < n) {
+            order = new int[n];
+            bin = new int[n];
+        }
+        Arrays.fill(start, 0, bins * bins + 1, 0);
+
+        double maxRadius = 0.0;
+        for (int i = 0; i < n; i++) {
+            store.moveTo(i, time);
+            int b = clamp((int) (store.rx(i) * bins)) * bins + clamp((int) (store.ry(i) * bins));
+            bin[i] = b;
+            start[b + 1]++;
+            maxRadius = Math.max(maxRadius, store.radius(i));
+        }
+        for (int b = 0; b < bins * bins; b++) {
+            start[b + 1] += start[b];
+        }
+        for (int i = 0; i < n; i++) {
+            order[start[bin[i]]++] = i;
+        }
+        // every start[b] now holds the start of bin b+1, shift them back
+        System.arraycopy(start, 0, start, 1, bins * bins);
+        start[0] = 0;
+        return maxRadius;
+    }
+
+    private int clamp(int b) {
+        return Math.max(0, Math.min(bins - 1, b));
+    }
+}
@@ -20,6 +20,12 @@
  *    -  don't use AffineTransform for rescaling since it inverts
  *       images and strings
  *
+ *  Local changes
+ *  -------------
+ *    -  Added getOffscreenImage(), so that the renderers of the simulator
+ *       can write the pixels of the canvas directly. This is the only
+ *       change to the library, keep it when updating this file.
+ *
  ******************************************************************************/
 
 package dependencies;
@@ -808,6 +814,18 @@ public final class StdDraw implements ActionListener, MouseListener, MouseMotion
     private static double   userX(double x) { return xmin + x * (xmax - xmin) / width;    }
     private static double   userY(double y) { return ymax - y * (ymax - ymin) / height;   }
 
+    /**
+     * Returns the offscreen image the drawing methods draw to, which is copied
+     * to the screen by {@link #show()}. Clients may write its pixels directly
+     * when double buffering is enabled. The image is replaced when the canvas
+     * size is changed.
+     *
+     * @return the offscreen image, of type {@code BufferedImage.TYPE_INT_ARGB}
+     */
+    public static BufferedImage getOffscreenImage() {
+        return offscreenImage;
+    }
+
 
     /**
      * Clears the screen to the default color (white).